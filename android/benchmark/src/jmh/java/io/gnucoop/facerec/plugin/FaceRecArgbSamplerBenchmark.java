@@ -0,0 +1,48 @@
+package io.gnucoop.facerec.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Samples a rotated 1024x1024 face crop of a 12 MP image into a model
+ * input, with and without area averaging.
+ */
+@State(Scope.Thread)
+public class FaceRecArgbSamplerBenchmark {
+    private static final int WIDTH = 4032;
+    private static final int HEIGHT = 3024;
+
+    @Param({ "112", "224" })
+    public int inputSize;
+
+    private final int[] cropRect = new int[]{ 1000, 1500, 2024, 2524 };
+    private int[] pixels;
+    private int[] out;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        out = new int[inputSize * inputSize];
+    }
+
+    @Benchmark
+    public int[] bilinear() {
+        FaceRecArgbSampler.sample(pixels, WIDTH, HEIGHT, 90, cropRect, inputSize, false, out);
+        return out;
+    }
+
+    @Benchmark
+    public int[] area() {
+        FaceRecArgbSampler.sample(pixels, WIDTH, HEIGHT, 90, cropRect, inputSize, true, out);
+        return out;
+    }
+}
@@ -0,0 +1,44 @@
+package io.gnucoop.facerec.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Computes the crop rects of a frame full of faces: square crop in the
+ * upright image, then scaled and mapped back to the stored image.
+ */
+@State(Scope.Thread)
+public class FaceRecCropMathBenchmark {
+    private static final int FACE_COUNT = 64;
+    private static final int WIDTH = 4032;
+    private static final int HEIGHT = 3024;
+
+    private final int[][] faces = new int[FACE_COUNT][3];
+    private final int[] rect = new int[4];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int[] face : faces) {
+            face[0] = random.nextInt(WIDTH);
+            face[1] = random.nextInt(HEIGHT);
+            face[2] = 50 + random.nextInt(1000);
+        }
+    }
+
+    @Benchmark
+    public int cropFaces() {
+        int sum = 0;
+        for (int[] face : faces) {
+            FaceRecCropMath.squareCrop(face[0], face[1], face[2], WIDTH, HEIGHT, rect);
+            FaceRecCropMath.scaleRect(rect, 0.25f, WIDTH / 4, HEIGHT / 4);
+            FaceRecCropMath.toRawRect(rect, 90, HEIGHT / 4, WIDTH / 4);
+            sum += rect[FaceRecCropMath.RIGHT] - rect[FaceRecCropMath.LEFT];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,51 @@
+package io.gnucoop.facerec.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Streams JPEG bytes into a base64 data URL the way encodeImage does. The
+ * plugin uses android.util.Base64OutputStream, which does not exist on a
+ * plain JVM, so the JDK encoder stands in for it here.
+ */
+@State(Scope.Thread)
+public class FaceRecDataUrlBenchmark {
+    private static final byte[] PREFIX = "data:image/jpeg;base64,".getBytes(Charset.forName("US-ASCII"));
+    private static final int CHUNK_SIZE = 4096;
+
+    @Param({"65536", "524288", "2097152"})
+    public int jpegSize;
+
+    private byte[] jpeg;
+
+    @Setup
+    public void setUp() {
+        jpeg = new byte[jpegSize];
+        new Random(42).nextBytes(jpeg);
+    }
+
+    @Benchmark
+    public String encode() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(PREFIX);
+        OutputStream base64Output = Base64.getEncoder().wrap(output);
+        try {
+            for (int offset = 0; offset < jpeg.length; offset += CHUNK_SIZE) {
+                base64Output.write(jpeg, offset, Math.min(CHUNK_SIZE, jpeg.length - offset));
+            }
+        } finally {
+            base64Output.close();
+        }
+        return output.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,69 @@
+package io.gnucoop.facerec.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures top-10 search latency against index size.
+ */
+@State(Scope.Benchmark)
+public class FaceRecEmbeddingIndexBenchmark {
+    private static final int QUERIES = 64;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"128"})
+    public int dimension;
+
+    private File dir;
+    private FaceRecEmbeddingIndex index;
+    private float[][] queries;
+    private int query;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = File.createTempFile("embeddings-bench", "");
+        dir.delete();
+        index = FaceRecEmbeddingIndex.open(dir, dimension);
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            index.add("face-" + i, randomVector(random));
+        }
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = randomVector(random);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        FaceRecEmbeddingIndex.delete(dir);
+        dir.delete();
+    }
+
+    @Benchmark
+    public List<FaceRecEmbeddingIndex.Match> search() {
+        query = (query + 1) % QUERIES;
+        return index.search(queries[query], 10, -1);
+    }
+
+    private float[] randomVector(Random random) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,83 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Assembles the faces of a result and serializes it, which is what the
+ * bridge does with the result of a call, either as JSON faces or packed
+ * straight from the model outputs into a base64 float32 array.
+ */
+@State(Scope.Thread)
+public class FaceRecFaceJsonBenchmark {
+    private static final String[] LABELS = new String[]{ "male", "female" };
+
+    @Param({"1", "8", "32"})
+    public int faceCount;
+
+    @Param({"0", "128"})
+    public int embeddingSize;
+
+    private float[] scores;
+    private float[] embedding;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        scores = new float[]{ random.nextFloat(), random.nextFloat() };
+        embedding = new float[embeddingSize];
+        for (int i = 0; i < embeddingSize; i++) {
+            embedding[i] = (float) random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public String assembleResult() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("faces", assembleFaces());
+        return result.toString();
+    }
+
+    @Benchmark
+    public String assemblePackedResult() throws JSONException {
+        FaceRecFaceResults results = new FaceRecFaceResults(faceCount);
+        for (int i = 0; i < faceCount; i++) {
+            results.setBounds(i, i * 10, i * 20, 300, 400);
+            results.setOutput("gender", LABELS, i, scores);
+            if (embeddingSize > 0) {
+                results.setOutput("embedding", null, i, embedding);
+            }
+        }
+        FaceRecPackedFaces packed = FaceRecPackedFaces.fromResults(results);
+        JSONObject resPacked = new JSONObject();
+        resPacked.put("count", packed.getCount());
+        resPacked.put("stride", packed.getStride());
+        resPacked.put("fields", packed.getFieldsJson());
+        resPacked.put("base64Data", Base64.getEncoder().encodeToString(packed.toByteArray()));
+        JSONObject result = new JSONObject();
+        result.put("packedFaces", resPacked);
+        return result.toString();
+    }
+
+    private JSONArray assembleFaces() throws JSONException {
+        JSONArray faces = new JSONArray();
+        for (int i = 0; i < faceCount; i++) {
+            JSONObject face = FaceRecFaceJson.putBounds(new JSONObject(), i * 10, i * 20, 300, 400);
+            face.put("gender", FaceRecFaceJson.output(LABELS, scores));
+            if (embeddingSize > 0) {
+                face.put("embedding", FaceRecFaceJson.output(null, embedding));
+            }
+            faces.put(face);
+        }
+        return faces;
+    }
+}
@@ -0,0 +1,51 @@
+package io.gnucoop.facerec.plugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Converts a batch of ARGB face crops into the model input buffer, as done
+ * for every group of model heads sharing an input.
+ */
+@State(Scope.Thread)
+public class FaceRecPixelConverterBenchmark {
+    @Param({"64", "96", "128", "224"})
+    public int inputSize;
+
+    @Param({"true", "false"})
+    public boolean floatNet;
+
+    @Param({"1", "4", "16"})
+    public int batchSize;
+
+    private FaceRecInputBufferPool pool;
+    private FaceRecPixelConverter converter;
+    private int[] pixels;
+
+    @Setup
+    public void setUp() {
+        pool = new FaceRecInputBufferPool(inputSize, 3, floatNet ? 4 : 1, batchSize);
+        converter = new FaceRecPixelConverter(
+                true, floatNet, new float[]{ 127.5f, 127.5f, 127.5f }, new float[]{ 127.5f, 127.5f, 127.5f });
+        pixels = new int[inputSize * inputSize];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer convertBatch() {
+        ByteBuffer buffer = pool.acquire(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            converter.convert(pixels, pixels.length, buffer);
+        }
+        return buffer;
+    }
+}
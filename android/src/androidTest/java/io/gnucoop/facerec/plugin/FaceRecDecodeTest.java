@@ -0,0 +1,81 @@
+package io.gnucoop.facerec.plugin;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.getcapacitor.JSObject;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the analysis of a photo, as done for getPhoto once the image file
+ * is saved, and counts how many times the file is decoded. The plugin has
+ * no bridge here, so the output images, which need a context to be
+ * encoded, are turned off.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceRecDecodeTest {
+    @Test
+    public void analyzeImageFile_decodesPhotoOnce() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        if (FirebaseApp.getApps(context).isEmpty()) {
+            FirebaseApp.initializeApp(context, new FirebaseOptions.Builder()
+                    .setApplicationId("1:0:android:0")
+                    .setApiKey("test")
+                    .build());
+        }
+        File photo = writePhoto(context, 1280, 960);
+
+        final AtomicInteger decodes = new AtomicInteger();
+        final FaceRecImageDecoder decoder = new FaceRecBitmapDecoder();
+        FaceRec plugin = new FaceRec(new FaceRecImageDecoder() {
+            @Override
+            public FaceRecImage decode(String path, int maxSize, FaceRecStageTimings timings) {
+                decodes.incrementAndGet();
+                return decoder.decode(path, maxSize, timings);
+            }
+        });
+        plugin.setNoFaceFallback(FaceRecFallbackMode.None);
+        plugin.loadDetector();
+
+        try {
+            FaceRecOutputOptions outputOptions = new FaceRecOutputOptions();
+            outputOptions.includeOriginalImage = false;
+            outputOptions.includeTaggedImage = false;
+            JSObject result = plugin.analyzeImageFile(photo.getAbsolutePath(), outputOptions, new FaceRecStageTimings());
+
+            assertNotNull(result);
+            assertEquals(0, result.getJSONArray("faces").length());
+            assertEquals(1, decodes.get());
+        } finally {
+            photo.delete();
+        }
+    }
+
+    private static File writePhoto(Context context, int width, int height) throws Exception {
+        File photo = File.createTempFile("FACEREC_", ".jpg", context.getCacheDir());
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GRAY);
+        OutputStream outputStream = new FileOutputStream(photo);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
+        } finally {
+            outputStream.close();
+            bitmap.recycle();
+        }
+        return photo;
+    }
+}
@@ -2,25 +2,25 @@ package io.gnucoop.facerec.plugin;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.MediaStore;
-import android.support.annotation.NonNull;
 import android.support.media.ExifInterface;
 import android.support.v4.content.FileProvider;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 import android.util.Log;
 
 import com.getcapacitor.JSArray;
@@ -32,32 +32,48 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.PluginRequestCodes;
 import com.getcapacitor.plugin.camera.ExifWrapper;
 import com.getcapacitor.plugin.camera.ImageUtils;
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.ml.vision.FirebaseVision;
 import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
 import com.google.firebase.ml.vision.face.FirebaseVisionFace;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
-import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.tensorflow.lite.Interpreter;
 
 @NativePlugin(
@@ -76,8 +92,11 @@ public class FaceRec extends Plugin {
     private static final int REQUEST_DOWNLOAD_MODELS = 10030;
     private static final String MISSING_INIT_PERMISSIONS = "Missing init permissions";
     private static final String INVALID_MODEL_URL_ERROR = "Invalid model URL";
+    private static final String DUPLICATE_MODEL_NAME_ERROR = "Duplicate model name";
     private static final String INVALID_PHOTO_SOURCE = "Invalid model URL";
     private static final String MODEL_DOWNLOAD_ERROR = "Unable to download model";
+    private static final String MODEL_LOAD_ERROR = "Unable to load model";
+    private static final String MODEL_CHECKSUM_ERROR = "Model checksum mismatch";
     private static final String NO_CAMERA_ERROR = "Device doesn't have a camera available";
     private static final String IMAGE_FILE_SAVE_ERROR = "Unable to create photo on disk";
     private static final String IMAGE_PROCESS_NO_FILE_ERROR = "Unable to process image, file not found on disk";
@@ -85,32 +104,111 @@ public class FaceRec extends Plugin {
     private static final String UNABLE_TO_PROCESS_IMAGE = "Unable to process image";
     private static final String NO_IMAGE_PICKED = "No image picked";
     private static final String OUT_OF_MEMORY = "Out of memory";
+    private static final String TOO_MANY_PENDING_REQUESTS = "Too many pending requests";
+    private static final String REQUEST_CANCELLED = "Request cancelled";
+    private static final String NOT_INITIALIZED_ERROR = "Face recognition not initialized";
     private static final String NO_IMAGE_FOUND = "No image found";
+    private static final String NO_FACE_FOUND = "No face found";
+    private static final String MISSING_FACE_ID = "Missing face id";
+    private static final String NO_EMBEDDING_MODEL_ERROR = "No embedding model loaded";
+    private static final String EMBEDDING_INDEX_ERROR = "Unable to open embedding index";
+
+    private static final String OUTPUT_DIR = "facerec";
+    private static final String MODEL_DIR = "gender_age_model";
+    private static final String MODEL_FILE_SUFFIX = ".tflite";
+    private static final String DETECTOR_SLOT = "detector";
+    private static final String RESULT_CACHE_FORMAT = "2";
+    private static final String MODEL_SLOT_PREFIX = "model:";
+    private static final String EMBEDDINGS_DIR = "embeddings";
+    private static final String DEFAULT_EMBEDDING_MODEL = "embedding";
+    private static final int DEFAULT_SEARCH_COUNT = 5;
+    private static final String RESULTS_DIR = "results";
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 32;
+    private static final long DEFAULT_OUTPUT_DISK_SIZE = 64L * 1024 * 1024;
+    private static final int DEFAULT_OUTPUT_MAX_AGE = 24 * 60 * 60;
+    private static final int DEFAULT_DETECTION_MAX_SIZE = 1280;
+    private static final int COPY_BUFFER_SIZE = 65536;
+    private static final byte[] BASE64_DATA_URL_PREFIX = "data:image/jpeg;base64,".getBytes(Charset.forName("US-ASCII"));
 
     private static final int COLOR_MALE = Color.parseColor("#6bcef5");
     private static final int COLOR_FEMALE = Color.parseColor("#f4989d");
     private static final int COLOR_INDETERMINATE = Color.parseColor("#c4db66");
 
-    private int batchSize = 1;
-    private int pixelSize = 3;
-    private int inputSize = 64;
-    private boolean inputAsRgb = true;
-    private boolean floatNet = true;
-    private int bytesPerChannel = 4;
-    private Float[] imageMean = new Float[]{ 127.5f, 127.5f, 127.5f };
-    private Float[] imageStd = new Float[]{ 127.5f, 127.5f, 127.5f };
+    private static final float DEFAULT_LIVE_TARGET_FPS = 10f;
+    private static final int DEFAULT_LIVE_PREVIEW_WIDTH = 640;
+    private static final int DEFAULT_LIVE_PREVIEW_HEIGHT = 480;
+
+    private int batchSize = 16;
+    private int detectionMaxSize = DEFAULT_DETECTION_MAX_SIZE;
+    private boolean cropAreaAverage = false;
+    private FaceRecFallbackMode noFaceFallback = FaceRecFallbackMode.Stretch;
+    private final FaceRecImageDecoder imageDecoder;
+    private FaceRecModelSpec defaultModelSpec = new FaceRecModelSpec();
+    private List<FaceRecModelSpec> modelSpecs = new ArrayList<FaceRecModelSpec>();
     private FirebaseVisionFaceDetector detector;
-    private String imageFileSavePath;
-    private Uri imageFileUri;
-    private Interpreter genderModel;
+    private List<FaceRecInputGroup> inputGroups = new ArrayList<FaceRecInputGroup>();
+    private FaceRecInterpreterOptions interpreterOptions = new FaceRecInterpreterOptions();
+    private FaceRecDetectorOptions detectorOptions = new FaceRecDetectorOptions();
+    private final ThreadLocal<FaceRecBoxRenderer> boxRenderers = new ThreadLocal<FaceRecBoxRenderer>() {
+        @Override
+        protected FaceRecBoxRenderer initialValue() {
+            return new FaceRecBoxRenderer();
+        }
+    };
+    private final Object inferenceLock = new Object();
+    private final ReadWriteLock detectorLock = new ReentrantReadWriteLock();
+    private int workerCount = 1;
+    private int maxQueuedRequests = 4;
+    private ExecutorService requestExecutor;
+    private volatile FaceRecFrameLoop<JSObject> liveFrameLoop;
+    private volatile FaceRecCameraSource liveCameraSource;
+    private final FaceRecRequestRegistry requests = new FaceRecRequestRegistry();
+    private final FaceRecModelRegistry models = new FaceRecModelRegistry();
+    private FaceRecResultCache resultCache = new FaceRecResultCache(null, 0, 0);
+    private FaceRecOutputFiles outputFiles;
+    private final FaceRecMetrics imageMetrics = new FaceRecMetrics();
+    private final FaceRecMetrics frameMetrics = new FaceRecMetrics();
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                releaseOnLowMemory();
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            releaseOnLowMemory();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
+    private PluginCall initCall;
+    private boolean modelRedownloaded;
+    private long progressInterval = FaceRecProgressThrottle.DEFAULT_INTERVAL_MILLIS;
+    private float progressStep = FaceRecProgressThrottle.DEFAULT_STEP;
+    private String embeddingModel = DEFAULT_EMBEDDING_MODEL;
+    private FaceRecEmbeddingIndex embeddingIndex;
+    private final Object embeddingLock = new Object();
+
+    public FaceRec() {
+        this(new FaceRecBitmapDecoder());
+    }
+
+    FaceRec(FaceRecImageDecoder imageDecoder) {
+        this.imageDecoder = imageDecoder;
+    }
 
     @PluginMethod()
     public void initFaceRecognition(PluginCall call) {
-        saveCall(call);
+        initCall = call;
 
         notifyInitStatus(FaceRecInitStatus.Init);
 
         if (!hasPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE) || !hasPermission(Manifest.permission.CAMERA)) {
+            saveCall(call);
             pluginRequestPermissions(new String[] {
                     Manifest.permission.WRITE_EXTERNAL_STORAGE,
                     Manifest.permission.CAMERA
@@ -121,71 +219,463 @@ public class FaceRec extends Plugin {
         if (call.hasOption("batchSize")) {
             Integer optBatchSize = call.getInt("batchSize");
             if (optBatchSize != null) {
-                batchSize = optBatchSize;
+                batchSize = Math.max(1, optBatchSize);
             }
         }
 
-        if (call.hasOption("pixelSize")) {
-            Integer optPixelSize = call.getInt("pixelSize");
-            if (optPixelSize != null) {
-                pixelSize = optPixelSize;
+        if (call.hasOption("detectionMaxSize")) {
+            Integer optDetectionMaxSize = call.getInt("detectionMaxSize");
+            if (optDetectionMaxSize != null) {
+                detectionMaxSize = Math.max(0, optDetectionMaxSize);
             }
         }
 
-        if (call.hasOption("inputSize")) {
-            Integer optInputSize = call.getInt("inputSize");
-            if (optInputSize != null) {
-                inputSize = optInputSize;
+        cropAreaAverage = "area".equals(call.getString("cropSampling", "bilinear"));
+        FaceRecFallbackMode fallbackMode = FaceRecFallbackMode.fromInt(
+                call.getInt("noFaceFallback", FaceRecFallbackMode.Stretch.ordinal()));
+        noFaceFallback = fallbackMode != null ? fallbackMode : FaceRecFallbackMode.Stretch;
+
+        configureRequestExecutor(
+                Math.max(1, call.getInt("workerCount", workerCount)),
+                Math.max(1, call.getInt("maxQueuedRequests", maxQueuedRequests)));
+
+        interpreterOptions = FaceRecInterpreterOptions.fromCall(call);
+        detectorOptions = FaceRecDetectorOptions.fromCall(call);
+
+        resultCache.configure(
+                call.getInt("resultCacheSize", DEFAULT_RESULT_CACHE_SIZE),
+                call.getInt("resultCacheDiskSize", 0));
+        outputFiles.configure(
+                call.getInt("outputDiskSize", (int) DEFAULT_OUTPUT_DISK_SIZE),
+                call.getInt("outputMaxAge", DEFAULT_OUTPUT_MAX_AGE) * 1000L);
+
+        if (call.hasOption("progressInterval")) {
+            Integer optProgressInterval = call.getInt("progressInterval");
+            if (optProgressInterval != null) {
+                progressInterval = Math.max(0, optProgressInterval);
             }
         }
 
-        if (call.hasOption("inputAsRgb")) {
-            Boolean optInputAsRgb = call.getBoolean("inputAsRgb");
-            if (optInputAsRgb != null) {
-                inputAsRgb = optInputAsRgb;
+        if (call.hasOption("progressStep")) {
+            Float optProgressStep = call.getFloat("progressStep");
+            if (optProgressStep != null) {
+                progressStep = Math.max(0f, optProgressStep);
             }
         }
 
-        if (call.hasOption("floatNet")) {
-            Boolean optFloatNet = call.getBoolean("floatNet");
-            if (optFloatNet != null) {
-                floatNet = optFloatNet;
-                bytesPerChannel = floatNet ? 4 : 1;
-            }
+        defaultModelSpec = FaceRecModelSpec.fromJson(call.getData(), defaultModelSpec, "modelUrl", "modelSha256");
+        if (defaultModelSpec.labels == null) {
+            defaultModelSpec.labels = FaceRecModelSpec.DEFAULT_LABELS;
         }
 
-        String modelUrl = call.getString("modelUrl");
+        List<FaceRecModelSpec> specs = new ArrayList<FaceRecModelSpec>();
+        JSArray optModels = call.getArray("models");
+        if (optModels != null && optModels.length() > 0) {
+            for (int i = 0; i < optModels.length(); i++) {
+                JSONObject optModel = optModels.optJSONObject(i);
+                if (optModel == null) {
+                    continue;
+                }
+                FaceRecModelSpec modelDefaults = defaultModelSpec.copyInputSpec();
+                modelDefaults.name = "model" + i;
+                FaceRecModelSpec spec = FaceRecModelSpec.fromJson(optModel, modelDefaults, "url", "sha256");
+                spec.fileName = spec.name + MODEL_FILE_SUFFIX;
+                specs.add(spec);
+            }
+        } else {
+            specs.add(defaultModelSpec);
+        }
 
-        try {
-            URL url = new URL(modelUrl);
-            String protocol = url.getProtocol();
-            if (!protocol.equals("https")) {
+        Set<String> modelNames = new HashSet<String>();
+        for (FaceRecModelSpec spec : specs) {
+            if (!modelNames.add(spec.name)) {
+                notifyInitError(DUPLICATE_MODEL_NAME_ERROR);
+                call.error(DUPLICATE_MODEL_NAME_ERROR);
+                return;
+            }
+            try {
+                URL url = new URL(spec.url);
+                if (!url.getProtocol().equals("https")) {
+                    notifyInitError(INVALID_MODEL_URL_ERROR);
+                    call.error(INVALID_MODEL_URL_ERROR);
+                    return;
+                }
+            } catch (MalformedURLException e) {
                 notifyInitError(INVALID_MODEL_URL_ERROR);
                 call.error(INVALID_MODEL_URL_ERROR);
                 return;
             }
+        }
+
+        modelSpecs = specs;
+        modelRedownloaded = false;
+        embeddingModel = call.getString("embeddingModel", DEFAULT_EMBEDDING_MODEL);
+
+        synchronized (inferenceLock) {
+            if (detector != null && models.contains(DETECTOR_SLOT, detectorOptions.getDetectorKey()) && areModelsLoaded(specs)) {
+                inputGroups = FaceRecInputGroup.fromHeads(getModelHeads(specs), batchSize);
+                resultCache.setVersion(getResultCacheVersion(specs));
+                notifyInitStatus(FaceRecInitStatus.Success);
+                JSObject res = new JSObject();
+                res.put("status", FaceRecInitStatus.Success.ordinal());
+                res.put("cached", true);
+                call.success(res);
+                return;
+            }
+        }
+
+        downloadModels();
+    }
 
-            new FaceRecModelDownloadTask(this).execute(modelUrl, "gender_age_model", "model.tflite");
-        } catch (MalformedURLException e) {
-            notifyInitError(INVALID_MODEL_URL_ERROR);
-            call.error(INVALID_MODEL_URL_ERROR);
+    private void downloadModels() {
+        List<String> params = new ArrayList<String>();
+        for (FaceRecModelSpec spec : modelSpecs) {
+            params.add(spec.url);
+            params.add(MODEL_DIR);
+            params.add(spec.fileName);
         }
+        new FaceRecModelDownloadTask(this, progressInterval, progressStep).execute(params.toArray(new String[0]));
     }
 
     @PluginMethod()
     public void getPhoto(PluginCall call) {
+        FaceRecPhotoSource source = FaceRecPhotoSource.fromInt(call.getInt("source", -1));
+        if (source == null) {
+            call.error(INVALID_PHOTO_SOURCE);
+            return;
+        }
+
+        FaceRecRequest request = new FaceRecRequest(call.getCallbackId(), call);
+        request.outputOptions = FaceRecOutputOptions.fromCall(call);
+        requests.register(request);
         saveCall(call);
 
-        FaceRecPhotoSource source = FaceRecPhotoSource.fromInt(call.getInt("source"));
         switch (source) {
             case Camera:
-                getPhotoFromCamera(call);
+                getPhotoFromCamera(request);
                 break;
             case Gallery:
-                getPhotoFromGallery(call);
+                getPhotoFromGallery(request);
                 break;
             default:
-                call.error(INVALID_PHOTO_SOURCE);
+                break;
+        }
+    }
+
+    @PluginMethod()
+    public void analyzeImages(PluginCall call) {
+        if (detector == null || inputGroups.isEmpty()) {
+            call.error(NOT_INITIALIZED_ERROR);
+            return;
+        }
+
+        JSArray images = call.getArray("images");
+        if (images == null || images.length() == 0) {
+            call.error(NO_IMAGE_FOUND);
+            return;
+        }
+
+        int parallelism = Math.max(1, Math.min(workerCount, call.getInt("parallelism", workerCount)));
+        final FaceRecRequest request = new FaceRecRequest(call.getCallbackId(), call);
+        request.outputOptions = FaceRecOutputOptions.fromCall(call);
+        requests.register(request);
+
+        final FaceRecBatch batch = new FaceRecBatch(images.length(), call.getCallbackId(), call.getString("batchId"));
+        final JSArray batchImages = images;
+        for (int i = 0; i < Math.min(parallelism, images.length()); i++) {
+            try {
+                request.batchWorkers.add(getRequestExecutor().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        runBatchWorker(request, batch, batchImages);
+                    }
+                }));
+            } catch (RejectedExecutionException ex) {
+                if (i == 0) {
+                    rejectRequest(request, TOO_MANY_PENDING_REQUESTS, null);
+                }
+                break;
+            }
+        }
+    }
+
+    @PluginMethod()
+    public void startLiveAnalysis(PluginCall call) {
+        if (detector == null || inputGroups.isEmpty()) {
+            call.error(NOT_INITIALIZED_ERROR);
+            return;
+        }
+
+        if (!hasPermission(Manifest.permission.CAMERA)) {
+            call.error(MISSING_INIT_PERMISSIONS);
+            return;
+        }
+
+        releaseLiveAnalysis();
+
+        float targetFps = call.getFloat("targetFps", DEFAULT_LIVE_TARGET_FPS);
+        boolean frontCamera = call.getBoolean("frontCamera", false);
+        int previewWidth = call.getInt("previewWidth", DEFAULT_LIVE_PREVIEW_WIDTH);
+        int previewHeight = call.getInt("previewHeight", DEFAULT_LIVE_PREVIEW_HEIGHT);
+        final boolean packFaces = call.getBoolean("packFaces", false);
+
+        final FaceRec plugin = this;
+        final FaceRecFrameLoop<JSObject> frameLoop = new FaceRecFrameLoop<JSObject>(
+                new FaceRecFrameLoop.Processor<JSObject>() {
+                    @Override
+                    public JSObject process(FaceRecFrame frame) throws Exception {
+                        return plugin.processFrame(frame, packFaces);
+                    }
+                },
+                new FaceRecFrameLoop.Listener<JSObject>() {
+                    @Override
+                    public void onResult(FaceRecFrame frame, JSObject result) {
+                        FaceRecFrameLoop<JSObject> loop = liveFrameLoop;
+                        if (loop != null) {
+                            result.put("droppedFrames", loop.getDroppedFrameCount());
+                        }
+                        plugin.notifyListeners("faceRecLiveResult", result);
+                    }
+
+                    @Override
+                    public void onError(FaceRecFrame frame, Exception ex) {
+                        Log.e(plugin.getLogTag(), "Unable to process frame", ex);
+                    }
+
+                    @Override
+                    public void onRelease(FaceRecFrame frame) {
+                        FaceRecCameraSource source = liveCameraSource;
+                        if (source != null) {
+                            source.releaseFrame(frame);
+                        }
+                    }
+                },
+                targetFps,
+                new FaceRecThreadFactory("FaceRecLive"));
+        FaceRecCameraSource cameraSource = new FaceRecCameraSource(
+                getActivity(), frontCamera, previewWidth, previewHeight, new FaceRecCameraSource.FrameCallback() {
+                    @Override
+                    public void onFrame(FaceRecFrame frame) {
+                        frameLoop.submit(frame);
+                    }
+
+                    @Override
+                    public void onCameraError(Exception ex) {
+                        JSObject error = new JSObject();
+                        error.put("error", ex.getMessage());
+                        plugin.notifyListeners("faceRecLiveResult", error);
+                    }
+                });
+
+        liveFrameLoop = frameLoop;
+        liveCameraSource = cameraSource;
+        frameLoop.start();
+        cameraSource.start();
+        call.success();
+    }
+
+    @PluginMethod()
+    public void stopLiveAnalysis(PluginCall call) {
+        JSObject res = new JSObject();
+        FaceRecFrameLoop<JSObject> frameLoop = liveFrameLoop;
+        if (frameLoop != null) {
+            res.put("processedFrames", frameLoop.getProcessedFrameCount());
+            res.put("droppedFrames", frameLoop.getDroppedFrameCount());
+        }
+        releaseLiveAnalysis();
+        call.success(res);
+    }
+
+    private void releaseLiveAnalysis() {
+        FaceRecCameraSource cameraSource = liveCameraSource;
+        FaceRecFrameLoop<JSObject> frameLoop = liveFrameLoop;
+        liveCameraSource = null;
+        liveFrameLoop = null;
+        if (cameraSource != null) {
+            cameraSource.stop();
+        }
+        if (frameLoop != null) {
+            frameLoop.stop();
+        }
+    }
+
+    @PluginMethod()
+    public void cancelProcessing(PluginCall call) {
+        List<FaceRecRequest> cancelled = requests.removeAll();
+        for (FaceRecRequest request : cancelled) {
+            request.cancel();
+            request.call.reject(REQUEST_CANCELLED);
+        }
+        JSObject res = new JSObject();
+        res.put("cancelled", cancelled.size());
+        call.success(res);
+    }
+
+    @PluginMethod()
+    public void release(PluginCall call) {
+        cancelPendingRequests();
+        JSObject res = new JSObject();
+        res.put("released", releaseModels());
+        call.success(res);
+    }
+
+    @PluginMethod()
+    public void getMetrics(PluginCall call) {
+        JSObject res = new JSObject();
+        res.put("images", imageMetrics.toJson());
+        res.put("frames", frameMetrics.toJson());
+        call.success(res);
+    }
+
+    @PluginMethod()
+    public void resetMetrics(PluginCall call) {
+        imageMetrics.reset();
+        frameMetrics.reset();
+        call.success();
+    }
+
+    @PluginMethod()
+    public void getResultCacheStats(PluginCall call) {
+        JSObject res = new JSObject();
+        res.put("hits", resultCache.getHits());
+        res.put("misses", resultCache.getMisses());
+        res.put("memoryEntries", resultCache.getMemoryEntries());
+        res.put("diskBytes", resultCache.getDiskBytes());
+        call.success(res);
+    }
+
+    @PluginMethod()
+    public void clearResultCache(PluginCall call) {
+        resultCache.clear();
+        call.success();
+    }
+
+    @PluginMethod()
+    public void clearOutputFiles(PluginCall call) {
+        JSObject res = new JSObject();
+        res.put("deleted", outputFiles.clear());
+        call.success(res);
+    }
+
+    @PluginMethod()
+    public void enrollFace(PluginCall call) {
+        if (detector == null || inputGroups.isEmpty()) {
+            call.error(NOT_INITIALIZED_ERROR);
+            return;
+        }
+
+        final String id = call.getString("id");
+        if (id == null || id.isEmpty() || id.indexOf('\n') >= 0) {
+            call.error(MISSING_FACE_ID);
+            return;
+        }
+
+        final String image = call.getString("image");
+        if (image == null) {
+            call.error(NO_IMAGE_FOUND);
+            return;
+        }
+
+        final int faceIndex = call.getInt("faceIndex", -1);
+        final FaceRecRequest request = new FaceRecRequest(call.getCallbackId(), call);
+        request.outputOptions = new FaceRecOutputOptions();
+        request.outputOptions.includeOriginalImage = false;
+        request.outputOptions.includeTaggedImage = false;
+        requests.register(request);
+        submitRequest(request, new Runnable() {
+            @Override
+            public void run() {
+                enrollImageFace(request, image, id, faceIndex);
+            }
+        });
+    }
+
+    @PluginMethod()
+    public void searchFaces(PluginCall call) {
+        if (detector == null || inputGroups.isEmpty()) {
+            call.error(NOT_INITIALIZED_ERROR);
+            return;
+        }
+
+        final String image = call.getString("image");
+        if (image == null) {
+            call.error(NO_IMAGE_FOUND);
+            return;
+        }
+
+        final int count = Math.max(1, call.getInt("count", DEFAULT_SEARCH_COUNT));
+        final float minScore = call.getFloat("minScore", -1f);
+        final FaceRecRequest request = new FaceRecRequest(call.getCallbackId(), call);
+        request.outputOptions = FaceRecOutputOptions.fromCall(call);
+        request.outputOptions.packFaces = false;
+        requests.register(request);
+        submitRequest(request, new Runnable() {
+            @Override
+            public void run() {
+                searchImageFaces(request, image, count, minScore);
+            }
+        });
+    }
+
+    @PluginMethod()
+    public void removeEnrolledFace(PluginCall call) {
+        String id = call.getString("id");
+        if (id == null) {
+            call.error(MISSING_FACE_ID);
+            return;
+        }
+
+        try {
+            FaceRecEmbeddingIndex index = getEmbeddingIndex();
+            JSObject res = new JSObject();
+            res.put("removed", index.remove(id));
+            res.put("count", index.size());
+            call.success(res);
+        } catch (FaceRecStateException ex) {
+            call.error(ex.getMessage());
+        } catch (IOException ex) {
+            call.error(EMBEDDING_INDEX_ERROR, ex);
+        }
+    }
+
+    @PluginMethod()
+    public void clearEnrolledFaces(PluginCall call) {
+        synchronized (embeddingLock) {
+            try {
+                closeEmbeddingIndex();
+                FaceRecEmbeddingIndex.delete(getEmbeddingDir());
+            } catch (IOException ex) {
+                call.error(EMBEDDING_INDEX_ERROR, ex);
+                return;
+            }
+        }
+        call.success();
+    }
+
+    @Override
+    public void load() {
+        super.load();
+        resultCache = new FaceRecResultCache(
+                new File(new File(getContext().getCacheDir(), OUTPUT_DIR), RESULTS_DIR), DEFAULT_RESULT_CACHE_SIZE, 0);
+        outputFiles = new FaceRecOutputFiles(
+                new File(getContext().getCacheDir(), OUTPUT_DIR), DEFAULT_OUTPUT_DISK_SIZE, DEFAULT_OUTPUT_MAX_AGE * 1000L);
+        getContext().registerComponentCallbacks(memoryCallbacks);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        super.handleOnDestroy();
+        getContext().unregisterComponentCallbacks(memoryCallbacks);
+        cancelPendingRequests();
+        releaseModels();
+        synchronized (embeddingLock) {
+            closeEmbeddingIndex();
+        }
+        synchronized (this) {
+            if (requestExecutor != null) {
+                requestExecutor.shutdownNow();
+                requestExecutor = null;
+            }
         }
     }
 
@@ -199,10 +689,17 @@ public class FaceRec extends Plugin {
             return;
         }
 
+        FaceRecRequest request = requests.get(savedCall.getCallbackId());
+        freeSavedCall();
+
+        if (request == null) {
+            return;
+        }
+
         if (requestCode == REQUEST_IMAGE_CAPTURE) {
-            processCameraImage(savedCall, data);
+            processCameraImage(request, data);
         } else if (requestCode == REQUEST_IMAGE_PICK) {
-            processPickedImage(savedCall, data);
+            processPickedImage(request, data);
         }
     }
 
@@ -224,33 +721,127 @@ public class FaceRec extends Plugin {
             String perm = permissions[i];
             if(result == PackageManager.PERMISSION_DENIED) {
                 Log.d(getLogTag(), "User denied camera permission: " + perm);
+                requests.remove(savedCall.getCallbackId());
+                freeSavedCall();
                 savedCall.error(MISSING_INIT_PERMISSIONS);
                 return;
             }
         }
 
         if (requestCode == REQUEST_INIT) {
+            freeSavedCall();
             initFaceRecognition(savedCall);
         } else if (requestCode == REQUEST_IMAGE_CAPTURE) {
-            getPhotoFromCamera(savedCall);
+            FaceRecRequest request = requests.get(savedCall.getCallbackId());
+            if (request != null) {
+                getPhotoFromCamera(request);
+            }
         }
     }
 
     protected void loadDownloadedModel(Boolean downloaded) {
-        PluginCall call = getSavedCall();
+        PluginCall call = initCall;
+        List<FaceRecModelSpec> specs = modelSpecs;
 
         notifyInitStatus(FaceRecInitStatus.LoadingModels);
 
-        String modelFilePath = getFilePath("gender_age_model", "model.tflite");
-        File modelFile = new File(modelFilePath);
+        final JSObject warmUp = new JSObject();
+        try {
+            MappedByteBuffer[] modelBuffers = new MappedByteBuffer[specs.size()];
+            List<FaceRecModelSpec> corruptSpecs = new ArrayList<FaceRecModelSpec>();
+            for (int i = 0; i < specs.size(); i++) {
+                FaceRecModelSpec spec = specs.get(i);
+                File modelFile = new File(getFilePath(MODEL_DIR, spec.fileName));
+                if (!modelFile.exists()) {
+                    notifyInitError(MODEL_DOWNLOAD_ERROR);
+                    call.error(MODEL_DOWNLOAD_ERROR);
+                    return;
+                }
+                modelBuffers[i] = FaceRecModelFile.map(modelFile);
+                String expectedSha256 = spec.sha256 != null
+                        ? spec.sha256
+                        : FaceRecModelFile.readChecksum(FaceRecModelFile.getChecksumFile(modelFile));
+                if (expectedSha256 != null && !FaceRecModelFile.matches(modelBuffers[i], expectedSha256)) {
+                    Log.w(getLogTag(), "Model checksum mismatch for " + modelFile);
+                    corruptSpecs.add(spec);
+                }
+            }
 
-        if (!downloaded && !modelFile.exists()) {
-            notifyInitError(MODEL_DOWNLOAD_ERROR);
-            call.error(MODEL_DOWNLOAD_ERROR);
+            if (!corruptSpecs.isEmpty()) {
+                if (!modelRedownloaded) {
+                    modelRedownloaded = true;
+                    for (FaceRecModelSpec spec : corruptSpecs) {
+                        new File(getFilePath(MODEL_DIR, spec.fileName)).delete();
+                        FaceRecModelDownloadTask.clearState(getContext(), spec.url);
+                    }
+                    getBridge().executeOnMainThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            downloadModels();
+                        }
+                    });
+                    return;
+                }
+                notifyInitError(MODEL_CHECKSUM_ERROR);
+                call.error(MODEL_CHECKSUM_ERROR);
+                return;
+            }
+
+            synchronized (inferenceLock) {
+                List<FaceRecModelHead> heads = new ArrayList<FaceRecModelHead>();
+                final List<FaceRecModelHead> loadedHeads = new ArrayList<FaceRecModelHead>();
+                Set<String> slots = new HashSet<String>();
+                slots.add(DETECTOR_SLOT);
+                for (int i = 0; i < specs.size(); i++) {
+                    final FaceRecModelSpec spec = specs.get(i);
+                    final MappedByteBuffer modelBuffer = modelBuffers[i];
+                    slots.add(MODEL_SLOT_PREFIX + spec.name);
+                    heads.add(models.acquire(MODEL_SLOT_PREFIX + spec.name, getModelKey(spec), FaceRecModelHead.class,
+                            new FaceRecModelRegistry.Loader<FaceRecModelHead>() {
+                                @Override
+                                public FaceRecModelHead load() {
+                                    Interpreter interpreter = new Interpreter(modelBuffer, interpreterOptions.toInterpreterOptions());
+                                    try {
+                                        FaceRecModelHead head = new FaceRecModelHead(spec, interpreter);
+                                        loadedHeads.add(head);
+                                        return head;
+                                    } catch (RuntimeException ex) {
+                                        interpreter.close();
+                                        throw ex;
+                                    }
+                                }
+                            }));
+                }
+                models.releaseExcept(slots);
+                inputGroups = FaceRecInputGroup.fromHeads(heads, batchSize);
+                warmUpModels(loadedHeads, interpreterOptions.warmUpRuns, warmUp);
+            }
+        } catch (Exception ex) {
+            notifyInitError(MODEL_LOAD_ERROR);
+            call.error(MODEL_LOAD_ERROR, ex);
             return;
         }
-        genderModel = new Interpreter(modelFile);
 
+        try {
+            loadDetector();
+        } catch (Exception ex) {
+            notifyInitError(MODEL_LOAD_ERROR);
+            call.error(MODEL_LOAD_ERROR, ex);
+            return;
+        }
+
+        resultCache.setVersion(getResultCacheVersion(specs));
+
+        JSObject status = new JSObject();
+        status.put("warmUp", warmUp);
+        notifyInitStatus(FaceRecInitStatus.Success, status);
+        JSObject res = new JSObject();
+        res.put("status", FaceRecInitStatus.Success.ordinal());
+        res.put("warmUp", warmUp);
+        call.success(res);
+    }
+
+    void loadDetector() throws Exception {
         try{
             FirebaseApp.getInstance();
         }
@@ -258,24 +849,156 @@ public class FaceRec extends Plugin {
             FirebaseApp.initializeApp(getContext());
         }
 
-        FirebaseVisionFaceDetectorOptions options = new FirebaseVisionFaceDetectorOptions.Builder()
-                .setPerformanceMode(FirebaseVisionFaceDetectorOptions.FAST)
-                .setLandmarkMode(FirebaseVisionFaceDetectorOptions.NO_LANDMARKS)
-                .setClassificationMode(FirebaseVisionFaceDetectorOptions.NO_CLASSIFICATIONS)
-                .build();
+        final FaceRecDetectorOptions options = detectorOptions;
+        detectorLock.writeLock().lock();
+        try {
+            detector = models.acquire(DETECTOR_SLOT, options.getDetectorKey(), FirebaseVisionFaceDetector.class,
+                    new FaceRecModelRegistry.Loader<FirebaseVisionFaceDetector>() {
+                        @Override
+                        public FirebaseVisionFaceDetector load() {
+                            return FirebaseVision.getInstance().getVisionFaceDetector(options.toDetectorOptions());
+                        }
+                    });
+        } finally {
+            detectorLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Detects the faces of an image. The read lock keeps the detector from
+     * being closed, by a release or a re-init, while a detection runs.
+     */
+    private List<FirebaseVisionFace> detectFaces(FirebaseVisionImage image) throws InterruptedException {
+        detectorLock.readLock().lock();
+        try {
+            FirebaseVisionFaceDetector faceDetector = detector;
+            if (faceDetector == null) {
+                throw new FaceRecStateException(NOT_INITIALIZED_ERROR);
+            }
+            return Tasks.await(faceDetector.detectInImage(image));
+        } catch (ExecutionException ex) {
+            throw new FaceRecStateException(NOT_INITIALIZED_ERROR, ex);
+        } finally {
+            detectorLock.readLock().unlock();
+        }
+    }
 
-        detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
+    void setNoFaceFallback(FaceRecFallbackMode noFaceFallback) {
+        this.noFaceFallback = noFaceFallback;
+    }
 
-        notifyInitStatus(FaceRecInitStatus.Success);
-        JSObject res = new JSObject();
-        res.put("status", FaceRecInitStatus.Success.ordinal());
-        call.success(res);
+    private void warmUpModels(List<FaceRecModelHead> heads, int runs, JSObject res) {
+        res.put("runs", runs);
+        if (runs < 1 || heads.isEmpty()) {
+            return;
+        }
+        long firstRun = 0;
+        long total = 0;
+        for (FaceRecInputGroup group : inputGroups) {
+            ByteBuffer input = group.inputBufferPool.acquire(1);
+            for (FaceRecModelHead head : group.heads) {
+                if (!heads.contains(head)) {
+                    continue;
+                }
+                for (int i = 0; i < runs; i++) {
+                    long start = System.nanoTime();
+                    head.run(input, 1);
+                    long elapsed = System.nanoTime() - start;
+                    if (i == 0) {
+                        firstRun += elapsed;
+                    }
+                    total += elapsed;
+                }
+            }
+        }
+        res.put("first", firstRun / 1e6);
+        res.put("average", total / 1e6 / runs);
+    }
+
+    /**
+     * Returns the registry key of a model. The size and modification time of
+     * the model file are part of it, so that a new version downloaded from
+     * the same url is loaded again even without a configured checksum.
+     */
+    private String getModelKey(FaceRecModelSpec spec) {
+        File modelFile = new File(getFilePath(MODEL_DIR, spec.fileName));
+        return spec.getCacheKey() + "#" + interpreterOptions.getCacheKey()
+                + "#" + modelFile.length() + "#" + modelFile.lastModified();
     }
 
-    private void getPhotoFromCamera(PluginCall call) {
+    /**
+     * Describes the loaded models, including the size and date of their files
+     * so that a model downloaded again from the same URL invalidates the
+     * cached results.
+     */
+    private String getResultCacheVersion(List<FaceRecModelSpec> specs) {
+        StringBuilder version = new StringBuilder(RESULT_CACHE_FORMAT);
+        version.append('#').append(detectorOptions.getCacheKey());
+        version.append(cropAreaAverage ? "#area" : "#bilinear");
+        version.append('#').append(noFaceFallback.name());
+        version.append('#').append(detectionMaxSize);
+        for (FaceRecModelSpec spec : specs) {
+            version.append('\n').append(spec.name).append('#').append(getModelKey(spec));
+        }
+        return FaceRecModelFile.sha256(ByteBuffer.wrap(version.toString().getBytes(Charset.forName("UTF-8"))));
+    }
+
+    private boolean areModelsLoaded(List<FaceRecModelSpec> specs) {
+        for (FaceRecModelSpec spec : specs) {
+            if (!models.contains(MODEL_SLOT_PREFIX + spec.name, getModelKey(spec))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<FaceRecModelHead> getModelHeads(List<FaceRecModelSpec> specs) {
+        List<FaceRecModelHead> heads = new ArrayList<FaceRecModelHead>();
+        for (FaceRecModelSpec spec : specs) {
+            heads.add(models.get(MODEL_SLOT_PREFIX + spec.name, getModelKey(spec), FaceRecModelHead.class));
+        }
+        return heads;
+    }
+
+    private void cancelPendingRequests() {
+        for (FaceRecRequest request : requests.removeAll()) {
+            request.cancel();
+            request.call.reject(REQUEST_CANCELLED);
+        }
+    }
+
+    /**
+     * Frees the detector and the interpreters, once running detections and
+     * inference are done. Pending requests are left alone: those waiting
+     * for a photo survive, and the ones reaching the models afterwards fail
+     * as not initialized.
+     */
+    private int releaseModels() {
+        releaseLiveAnalysis();
+        synchronized (inferenceLock) {
+            detectorLock.writeLock().lock();
+            try {
+                detector = null;
+                inputGroups = new ArrayList<FaceRecInputGroup>();
+                return models.releaseAll();
+            } finally {
+                detectorLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void releaseOnLowMemory() {
+        if (releaseModels() > 0) {
+            Log.i(getLogTag(), "Released face recognition models on low memory");
+            notifyInitStatus(FaceRecInitStatus.Released);
+        }
+    }
+
+    private void getPhotoFromCamera(FaceRecRequest request) {
+        PluginCall call = request.call;
         if (hasPermission(Manifest.permission.CAMERA)) {
             if (!getContext().getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA)) {
-                call.error(NO_CAMERA_ERROR);
+                rejectRequest(request, NO_CAMERA_ERROR, null);
                 return;
             }
 
@@ -284,12 +1007,12 @@ public class FaceRec extends Plugin {
                 try {
                     String appId = getAppId();
                     File photoFile = createImageFile(getActivity(), false);
-                    imageFileSavePath = photoFile.getAbsolutePath();
-                    imageFileUri = FileProvider.getUriForFile(getActivity(), appId + ".fileprovider", photoFile);
-                    takePictureIntent.putExtra(MediaStore.EXTRA_OUTPUT, imageFileUri);
+                    request.imageFilePath = photoFile.getAbsolutePath();
+                    request.imageFileUri = FileProvider.getUriForFile(getActivity(), appId + ".fileprovider", photoFile);
+                    takePictureIntent.putExtra(MediaStore.EXTRA_OUTPUT, request.imageFileUri);
                 }
                 catch (Exception ex) {
-                    call.error(IMAGE_FILE_SAVE_ERROR, ex);
+                    rejectRequest(request, IMAGE_FILE_SAVE_ERROR, ex);
                     return;
                 }
 
@@ -302,238 +1025,1034 @@ public class FaceRec extends Plugin {
         }
     }
 
-    private void getPhotoFromGallery(PluginCall call) {
+    private void getPhotoFromGallery(FaceRecRequest request) {
         Intent intent = new Intent(Intent.ACTION_PICK);
         intent.setType("image/*");
-        startActivityForResult(call, intent, REQUEST_IMAGE_PICK);
+        startActivityForResult(request.call, intent, REQUEST_IMAGE_PICK);
     }
 
-    private void processCameraImage(PluginCall call, Intent data) {
-        if (imageFileSavePath == null) {
-            call.error(IMAGE_PROCESS_NO_FILE_ERROR);
+    private void processCameraImage(FaceRecRequest request, Intent data) {
+        if (request.imageFilePath == null) {
+            rejectRequest(request, IMAGE_PROCESS_NO_FILE_ERROR, null);
             return;
         }
 
-        Bitmap bitmap = getRotatedBitmap();
-        if (bitmap == null) {
-            call.error(IMAGE_PROCESS_NO_FILE_ERROR);
+        submitImageRequest(request);
+    }
+
+    private void processPickedImage(FaceRecRequest request, Intent data) {
+        if (data == null) {
+            rejectRequest(request, NO_IMAGE_PICKED, null);
             return;
         }
 
-        processImage(call, bitmap);
+        request.imageFileUri = data.getData();
+        request.imageFilePath = getRealPathFromURI(getContext(), request.imageFileUri);
+        if (request.imageFilePath == null) {
+            rejectRequest(request, UNABLE_TO_PROCESS_BITMAP, null);
+            return;
+        }
+
+        submitImageRequest(request);
     }
 
-    private void processPickedImage(PluginCall call, Intent data) {
-        if (data == null) {
-            call.error(NO_IMAGE_PICKED);
-            return;
+    private void submitImageRequest(final FaceRecRequest request) {
+        submitRequest(request, new Runnable() {
+            @Override
+            public void run() {
+                processImageRequest(request);
+            }
+        });
+    }
+
+    private void submitRequest(FaceRecRequest request, Runnable work) {
+        FutureTask<Void> task = new FutureTask<Void>(work, null);
+        request.future = task;
+        try {
+            getRequestExecutor().execute(task);
+        } catch (RejectedExecutionException ex) {
+            rejectRequest(request, TOO_MANY_PENDING_REQUESTS, null);
         }
+    }
 
-        Uri u = data.getData();
-        imageFileSavePath = getRealPathFromURI(getContext(), u);
+    private void processImageRequest(FaceRecRequest request) {
+        try {
+            JSObject result = analyzeImageFile(request.imageFilePath, request.outputOptions, new FaceRecStageTimings());
+            if (result == null) {
+                rejectRequest(request, UNABLE_TO_PROCESS_BITMAP, null);
+                return;
+            }
 
+            resolveRequest(request, result);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (FaceRecStateException ex) {
+            rejectRequest(request, ex.getMessage(), null);
+        } catch (RuntimeException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (OutOfMemoryError err) {
+            rejectRequest(request, OUT_OF_MEMORY, null);
+        }
+    }
+
+    JSObject analyzeImageFile(String path, FaceRecOutputOptions outputOptions, FaceRecStageTimings timings)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        JSObject result = analyzeImageStages(path, outputOptions, timings);
+        if (result != null) {
+            imageMetrics.record(timings, System.nanoTime() - start);
+            if (outputOptions.includeTimings) {
+                result.put("timings", timings.toJson(1));
+            }
+        }
+        return result;
+    }
+
+    private JSObject analyzeImageStages(String path, FaceRecOutputOptions outputOptions, FaceRecStageTimings timings)
+            throws IOException, InterruptedException {
+        String cacheKey = null;
+        JSONObject analysis = null;
+        if (path != null && resultCache.isEnabled() && new File(path).isFile()) {
+            long stageStart = System.nanoTime();
+            cacheKey = FaceRecResultCache.hashFile(new File(path));
+            analysis = parseAnalysis(resultCache.get(cacheKey));
+            timings.add(FaceRecStage.Hash, System.nanoTime() - stageStart);
+            if (analysis != null && !outputOptions.includeOriginalImage && !outputOptions.includeTaggedImage) {
+                JSObject result = new JSObject();
+                putFaces(result, analysis, null, outputOptions, timings);
+                return result;
+            }
+        }
+
+        FaceRecImage image = imageDecoder.decode(path, getDecodeMaxSize(outputOptions), timings);
+        if (image == null) {
+            return null;
+        }
+
+        try {
+            if (analysis != null) {
+                return renderResult(image, analysis, null, outputOptions, timings);
+            }
+
+            long stageStart = System.nanoTime();
+            Bitmap detectionBitmap = getDetectionBitmap(image.bitmap);
+            float detectionScale = (float) image.getWidth() / detectionBitmap.getWidth();
+            List<FirebaseVisionFace> faces;
+            try {
+                faces = detectFaces(FirebaseVisionImage.fromBitmap(detectionBitmap));
+            } finally {
+                if (detectionBitmap != image.bitmap) {
+                    detectionBitmap.recycle();
+                }
+            }
+            timings.add(FaceRecStage.Detect, System.nanoTime() - stageStart);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            FaceRecFaceResults faceResults = analyzeDetectedFaces(image, faces, detectionScale, timings);
+            boolean cacheResult = cacheKey != null;
+            analysis = faceResults.toJson(
+                    cacheResult || !outputOptions.packFaces || outputOptions.includeTaggedImage);
+            if (cacheResult) {
+                resultCache.put(cacheKey, analysis.toString());
+            }
+            return renderResult(image, analysis, faceResults, outputOptions, timings);
+        } finally {
+            image.bitmap.recycle();
+        }
+    }
+
+    private JSONObject parseAnalysis(String value) {
+        if (value == null) {
+            return null;
+        }
         try {
-            Bitmap bitmap = getRotatedBitmap();
+            return new JSONObject(value);
+        } catch (JSONException ex) {
+            Log.w(getLogTag(), "Invalid cached result", ex);
+            return null;
+        }
+    }
 
-            if (bitmap == null) {
-                call.reject(UNABLE_TO_PROCESS_BITMAP);
+    /**
+     * Analyzes the images of a batch on one of the shared workers, taking
+     * the next image until none is left or the batch is cancelled. A batch
+     * runs on at most parallelism workers, each counted as one queued
+     * request.
+     */
+    private void runBatchWorker(FaceRecRequest request, FaceRecBatch batch, JSArray images) {
+        for (int index = batch.nextImage(); index >= 0; index = batch.nextImage()) {
+            if (Thread.currentThread().isInterrupted()) {
                 return;
             }
+            analyzeBatchImage(request, batch, index, images.optString(index));
+        }
+    }
 
-            processImage(call, bitmap);
+    private void analyzeBatchImage(FaceRecRequest request, FaceRecBatch batch, int index, String imageSource) {
+        FaceRecStageTimings timings = new FaceRecStageTimings();
+        JSObject event = new JSObject();
+        putBatchId(event, batch);
+        event.put("index", index);
+        event.put("image", imageSource);
+        try {
+            JSObject result = analyzeImageSource(imageSource, request.outputOptions, timings);
+            if (result != null) {
+                event.put("result", result);
+            } else {
+                event.put("error", UNABLE_TO_PROCESS_BITMAP);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            event.put("error", REQUEST_CANCELLED);
+        } catch (IOException ex) {
+            event.put("error", UNABLE_TO_PROCESS_IMAGE);
+        } catch (FaceRecStateException ex) {
+            event.put("error", ex.getMessage());
+        } catch (RuntimeException ex) {
+            Log.e(getLogTag(), UNABLE_TO_PROCESS_IMAGE, ex);
+            event.put("error", UNABLE_TO_PROCESS_IMAGE);
         } catch (OutOfMemoryError err) {
-            call.error(OUT_OF_MEMORY);
+            event.put("error", OUT_OF_MEMORY);
+        } finally {
+            completeBatchImage(request, batch, event, timings);
         }
     }
 
-    private void processImage(PluginCall call, Bitmap bitmap) {
-        final FaceRec plugin = this;
-        final PluginCall pluginCall = call;
-        Task<List<FirebaseVisionFace>> result = detector.detectInImage(FirebaseVisionImage.fromBitmap(bitmap));
-        result.addOnSuccessListener(new OnSuccessListener<List<FirebaseVisionFace>>() {
-            @Override
-            public void onSuccess(@NonNull List<FirebaseVisionFace> faces) {
-                plugin.processDetectedFaces(pluginCall, faces);
+    /**
+     * Counts an analyzed image and resolves the batch with its summary after
+     * the last one, whatever the outcome of the image. Images interrupted by
+     * a cancellation are counted as failed but not notified.
+     */
+    private void completeBatchImage(FaceRecRequest request, FaceRecBatch batch, JSObject event,
+                                    FaceRecStageTimings timings) {
+        if (event.has("error")) {
+            batch.failed.incrementAndGet();
+        } else {
+            batch.succeeded.incrementAndGet();
+        }
+        batch.totals.addAll(timings);
+        if (!REQUEST_CANCELLED.equals(event.optString("error"))) {
+            event.put("timings", timings.toJson(1));
+            notifyListeners("faceRecImageAnalyzed", event);
+        }
+
+        if (batch.completeImage()) {
+            double elapsedSeconds = batch.getElapsedNanos() / 1e9;
+            JSObject summary = new JSObject();
+            putBatchId(summary, batch);
+            summary.put("count", batch.imageCount);
+            summary.put("succeeded", batch.succeeded.get());
+            summary.put("failed", batch.failed.get());
+            summary.put("elapsed", elapsedSeconds * 1000);
+            summary.put("imagesPerSecond", elapsedSeconds > 0 ? batch.imageCount / elapsedSeconds : 0);
+            summary.put("totalTimings", batch.totals.toJson(1));
+            summary.put("averageTimings", batch.totals.toJson(batch.imageCount));
+            resolveRequest(request, summary);
+        }
+    }
+
+    private void putBatchId(JSObject res, FaceRecBatch batch) {
+        res.put("callbackId", batch.callbackId);
+        if (batch.batchId != null) {
+            res.put("batchId", batch.batchId);
+        }
+    }
+
+    private JSObject analyzeImageSource(String imageSource, FaceRecOutputOptions outputOptions, FaceRecStageTimings timings)
+            throws IOException, InterruptedException {
+        File tempFile = null;
+        try {
+            String path = getImagePath(imageSource);
+            if (path == null) {
+                tempFile = copyToCache(Uri.parse(imageSource));
+                path = tempFile.getAbsolutePath();
             }
-        });
-        result.addOnFailureListener(new OnFailureListener() {
+            return analyzeImageFile(path, outputOptions, timings);
+        } finally {
+            if (tempFile != null && !tempFile.delete()) {
+                Log.w(getLogTag(), "Unable to delete " + tempFile);
+            }
+        }
+    }
+
+    private void enrollImageFace(FaceRecRequest request, String imageSource, String id, int faceIndex) {
+        try {
+            FaceRecEmbeddingIndex index = getEmbeddingIndex();
+            JSObject result = analyzeImageSource(imageSource, request.outputOptions, new FaceRecStageTimings());
+            if (result == null) {
+                rejectRequest(request, UNABLE_TO_PROCESS_BITMAP, null);
+                return;
+            }
+
+            JSONObject face = selectFace(result.optJSONArray("faces"), faceIndex);
+            if (face == null) {
+                rejectRequest(request, NO_FACE_FOUND, null);
+                return;
+            }
+            float[] embedding = getEmbedding(face);
+            if (embedding == null) {
+                rejectRequest(request, NO_EMBEDDING_MODEL_ERROR, null);
+                return;
+            }
+
+            try {
+                index.add(id, embedding);
+            } catch (IOException ex) {
+                rejectRequest(request, EMBEDDING_INDEX_ERROR, ex);
+                return;
+            }
+            JSObject res = new JSObject();
+            res.put("id", id);
+            res.put("count", index.size());
+            res.put("face", face);
+            resolveRequest(request, res);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (FaceRecStateException ex) {
+            rejectRequest(request, ex.getMessage(), null);
+        } catch (RuntimeException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (OutOfMemoryError err) {
+            rejectRequest(request, OUT_OF_MEMORY, null);
+        }
+    }
+
+    private void searchImageFaces(FaceRecRequest request, String imageSource, int count, float minScore) {
+        try {
+            FaceRecEmbeddingIndex index = getEmbeddingIndex();
+            JSObject result = analyzeImageSource(imageSource, request.outputOptions, new FaceRecStageTimings());
+            if (result == null) {
+                rejectRequest(request, UNABLE_TO_PROCESS_BITMAP, null);
+                return;
+            }
+
+            JSONArray faces = result.optJSONArray("faces");
+            for (int i = 0; faces != null && i < faces.length(); i++) {
+                JSONObject face = faces.getJSONObject(i);
+                float[] embedding = getEmbedding(face);
+                if (embedding == null) {
+                    continue;
+                }
+                JSArray matches = new JSArray();
+                for (FaceRecEmbeddingIndex.Match match : index.search(embedding, count, minScore)) {
+                    JSObject resMatch = new JSObject();
+                    resMatch.put("id", match.id);
+                    resMatch.put("score", match.score);
+                    matches.put(resMatch);
+                }
+                face.put("matches", matches);
+            }
+            resolveRequest(request, result);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (JSONException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (FaceRecStateException ex) {
+            rejectRequest(request, ex.getMessage(), null);
+        } catch (RuntimeException ex) {
+            rejectRequest(request, UNABLE_TO_PROCESS_IMAGE, ex);
+        } catch (OutOfMemoryError err) {
+            rejectRequest(request, OUT_OF_MEMORY, null);
+        }
+    }
+
+    /**
+     * Returns the face at faceIndex, or the largest face when faceIndex is
+     * negative.
+     */
+    private JSONObject selectFace(JSONArray faces, int faceIndex) {
+        if (faces == null || faces.length() == 0) {
+            return null;
+        }
+        if (faceIndex >= 0) {
+            return faces.optJSONObject(faceIndex);
+        }
+        JSONObject largest = null;
+        long largestArea = -1;
+        for (int i = 0; i < faces.length(); i++) {
+            JSONObject face = faces.optJSONObject(i);
+            if (face == null) {
+                continue;
+            }
+            long area = (long) face.optInt("width") * face.optInt("height");
+            if (area > largestArea) {
+                largest = face;
+                largestArea = area;
+            }
+        }
+        return largest;
+    }
+
+    private float[] getEmbedding(JSONObject face) {
+        JSONArray values = face.optJSONArray(embeddingModel);
+        if (values == null) {
+            return null;
+        }
+        float[] embedding = new float[values.length()];
+        for (int i = 0; i < embedding.length; i++) {
+            embedding[i] = (float) values.optDouble(i);
+        }
+        return embedding;
+    }
+
+    /**
+     * Opens the index of the configured embedding model, reopening it if the
+     * model output size changed since it was last opened.
+     */
+    private FaceRecEmbeddingIndex getEmbeddingIndex() {
+        int dimension = 0;
+        synchronized (inferenceLock) {
+            if (detector == null || inputGroups.isEmpty()) {
+                throw new FaceRecStateException(NOT_INITIALIZED_ERROR);
+            }
+            for (FaceRecInputGroup group : inputGroups) {
+                for (FaceRecModelHead head : group.heads) {
+                    if (head.spec.name.equals(embeddingModel)) {
+                        dimension = head.outputSize;
+                    }
+                }
+            }
+        }
+        if (dimension == 0) {
+            throw new FaceRecStateException(NO_EMBEDDING_MODEL_ERROR);
+        }
+
+        synchronized (embeddingLock) {
+            if (embeddingIndex != null && embeddingIndex.getDimension() == dimension) {
+                return embeddingIndex;
+            }
+            closeEmbeddingIndex();
+            try {
+                embeddingIndex = FaceRecEmbeddingIndex.open(getEmbeddingDir(), dimension);
+            } catch (IOException ex) {
+                Log.e(getLogTag(), EMBEDDING_INDEX_ERROR, ex);
+                throw new FaceRecStateException(EMBEDDING_INDEX_ERROR);
+            }
+            return embeddingIndex;
+        }
+    }
+
+    private File getEmbeddingDir() {
+        return new File(new File(new File(getContext().getFilesDir(), OUTPUT_DIR), EMBEDDINGS_DIR), embeddingModel);
+    }
+
+    private void closeEmbeddingIndex() {
+        if (embeddingIndex == null) {
+            return;
+        }
+        try {
+            embeddingIndex.close();
+        } catch (IOException ex) {
+            Log.w(getLogTag(), "Unable to close embedding index", ex);
+        }
+        embeddingIndex = null;
+    }
+
+    private String getImagePath(String imageSource) {
+        Uri uri = Uri.parse(imageSource);
+        String scheme = uri.getScheme();
+        if (scheme == null) {
+            return imageSource;
+        }
+        if ("file".equals(scheme)) {
+            return uri.getPath();
+        }
+        if ("content".equals(scheme)) {
+            return getRealPathFromURI(getContext(), uri);
+        }
+        return null;
+    }
+
+    private File copyToCache(Uri uri) throws IOException {
+        InputStream inputStream = getContext().getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        File outputFile = createOutputFile();
+        OutputStream outputStream = new FileOutputStream(outputFile);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+        return outputFile;
+    }
+
+    private void resolveRequest(FaceRecRequest request, final JSObject result) {
+        if (!requests.remove(request)) {
+            return;
+        }
+        final PluginCall call = request.call;
+        getBridge().executeOnMainThread(new Runnable() {
             @Override
-            public void onFailure(@NonNull Exception e) {
-                plugin.processDetectedFaces(pluginCall, null);
+            public void run() {
+                call.success(result);
             }
         });
     }
 
-    private void processDetectedFaces(PluginCall call, List<FirebaseVisionFace> faces) {
-        Bitmap bitmap = getRotatedBitmap();
-        if (bitmap != null){
-            File imageFile = new File(imageFileSavePath);
-            Uri contentUri = Uri.fromFile(imageFile);
-            JSArray resFaces = new JSArray();
+    private void rejectRequest(FaceRecRequest request, String message, Exception ex) {
+        if (!requests.remove(request)) {
+            return;
+        }
+        request.call.error(message, ex);
+    }
+
+    private synchronized ExecutorService getRequestExecutor() {
+        if (requestExecutor == null) {
+            requestExecutor = new ThreadPoolExecutor(
+                    workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(1, maxQueuedRequests)),
+                    new FaceRecThreadFactory("FaceRecWorker"));
+        }
+        return requestExecutor;
+    }
+
+    private synchronized void configureRequestExecutor(int workerCount, int maxQueuedRequests) {
+        if (workerCount == this.workerCount && maxQueuedRequests == this.maxQueuedRequests) {
+            return;
+        }
+        this.workerCount = workerCount;
+        this.maxQueuedRequests = maxQueuedRequests;
+        if (requestExecutor != null) {
+            requestExecutor.shutdown();
+            requestExecutor = null;
+        }
+    }
+
+    /**
+     * Returns the size to decode an image at: the detection size, unless an
+     * output image is requested. Output images are only downscaled when the
+     * caller sets maxOutputSize or taggedImageMaxSize, and are otherwise
+     * encoded at full resolution, so the image is decoded once at the
+     * largest size needed.
+     */
+    private int getDecodeMaxSize(FaceRecOutputOptions outputOptions) {
+        int maxSize = detectionMaxSize;
+        if (outputOptions.includeOriginalImage) {
+            maxSize = getLargerMaxSize(maxSize, outputOptions.maxSize);
+        }
+        if (outputOptions.includeTaggedImage) {
+            maxSize = getLargerMaxSize(maxSize, outputOptions.taggedImageMaxSize > 0
+                    ? outputOptions.taggedImageMaxSize
+                    : outputOptions.maxSize);
+        }
+        return maxSize;
+    }
+
+    private static int getLargerMaxSize(int maxSize, int otherMaxSize) {
+        return maxSize <= 0 || otherMaxSize <= 0 ? 0 : Math.max(maxSize, otherMaxSize);
+    }
+
+    /**
+     * Returns the bitmap to run detection on. An image decoded larger for
+     * the output images is reduced as the decoder would have subsampled it
+     * for detection alone.
+     */
+    private Bitmap getDetectionBitmap(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int sampleSize = FaceRecCropMath.sampleSizeFor(Math.max(width, height), detectionMaxSize);
+        if (sampleSize <= 1) {
+            return bitmap;
+        }
+        return Bitmap.createScaledBitmap(
+                bitmap, Math.max(1, width / sampleSize), Math.max(1, height / sampleSize), true);
+    }
 
-            Bitmap taggedBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-            Canvas taggedCanvas = new Canvas(taggedBitmap);
+    /**
+     * Runs the models on the detected faces, or on the whole image when no
+     * face was found and the fallback mode allows it. The faces are returned
+     * together with their boxes in image coordinates, so that the result can
+     * be cached and rendered again without running detection and inference.
+     * The scale maps detection coordinates to image coordinates.
+     */
+    private FaceRecFaceResults analyzeDetectedFaces(
+            FaceRecImage image,
+            List<FirebaseVisionFace> faces,
+            float scale,
+            FaceRecStageTimings timings) throws IOException {
+        Bitmap bitmap = image.bitmap;
+
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+
+        FaceRecDetectorOptions options = detectorOptions;
+        int detectedCount = faces != null ? faces.size() : 0;
+        faces = filterFaces(faces, scale, options.filter);
+        int skippedFaces = detectedCount - (faces != null ? faces.size() : 0);
+        FaceRecFaceResults faceResults;
+
+        if (faces != null && !faces.isEmpty()) {
+            int faceCount = faces.size();
+            int[][] cropRects = new int[faceCount][4];
+            for (int i = 0; i < faceCount; i++) {
+                Rect rect = faces.get(i).getBoundingBox();
+                int size = Math.round(Math.max(rect.width(), rect.height()) * scale);
+                FaceRecCropMath.squareCrop(
+                        Math.round(rect.centerX() * scale), Math.round(rect.centerY() * scale),
+                        size, imageWidth, imageHeight, cropRects[i]);
+            }
 
-            float lineWidth = (float)Math.max(3, Math.min(bitmap.getWidth(), bitmap.getHeight()) * 0.01);
-            Paint linePaint = new Paint();
-            linePaint.setStyle(Paint.Style.STROKE);
-            linePaint.setStrokeWidth(lineWidth);
+            BitmapRegionDecoder regionDecoder = null;
+            try {
+                if (image.isSubsampled()) {
+                    regionDecoder = BitmapRegionDecoder.newInstance(image.path, false);
+                }
+                long stageStart = System.nanoTime();
+                int cropSize = getMaxInputSize();
+                FaceRecFaceRegion[] faceRegions = new FaceRecFaceRegion[faceCount];
+                faceResults = new FaceRecFaceResults(faceCount);
+                for (int i = 0; i < faceCount; i++) {
+                    faceRegions[i] = regionDecoder != null
+                            ? decodeFaceRegion(regionDecoder, image, cropRects[i], cropSize)
+                            : readRegion(bitmap, cropRects[i], cropSize);
+                    timings.addBytes(FaceRecStage.Crop, faceRegions[i].pixels.length * 4L);
+                    Rect rect = faces.get(i).getBoundingBox();
+                    faceResults.setBounds(i,
+                            cropRects[i][FaceRecCropMath.LEFT], cropRects[i][FaceRecCropMath.TOP],
+                            Math.round(rect.width() * scale), Math.round(rect.height() * scale));
+                    faceResults.setBox(i,
+                            Math.round(rect.left * scale), Math.round(rect.top * scale),
+                            Math.round(rect.right * scale), Math.round(rect.bottom * scale));
+                    putTrackingId(faceResults, i, faces.get(i), options);
+                }
+                timings.add(FaceRecStage.Crop, System.nanoTime() - stageStart);
 
+                runModels(faceResults, getRegionPixels(faceRegions), timings);
+            } finally {
+                if (regionDecoder != null) {
+                    regionDecoder.recycle();
+                }
+            }
+        } else if (detectedCount == 0 && noFaceFallback != FaceRecFallbackMode.None) {
+            long stageStart = System.nanoTime();
+            int[] faceRect = new int[]{ 0, 0, imageWidth, imageHeight };
+            if (noFaceFallback == FaceRecFallbackMode.CenterCrop) {
+                FaceRecCropMath.squareCrop(
+                        imageWidth / 2, imageHeight / 2, Math.min(imageWidth, imageHeight),
+                        imageWidth, imageHeight, faceRect);
+            }
             int bitmapWidth = bitmap.getWidth();
             int bitmapHeight = bitmap.getHeight();
+            int[] srcRect = new int[]{ 0, 0, bitmapWidth, bitmapHeight };
+            if (noFaceFallback == FaceRecFallbackMode.CenterCrop) {
+                FaceRecCropMath.squareCrop(
+                        bitmapWidth / 2, bitmapHeight / 2, Math.min(bitmapWidth, bitmapHeight),
+                        bitmapWidth, bitmapHeight, srcRect);
+            }
+            FaceRecFaceRegion faceRegion = readRegion(bitmap, srcRect, getMaxInputSize());
+            faceRegion.letterbox = noFaceFallback == FaceRecFallbackMode.Letterbox;
+            timings.addBytes(FaceRecStage.Crop, faceRegion.pixels.length * 4L);
+            timings.add(FaceRecStage.Crop, System.nanoTime() - stageStart);
+            faceResults = new FaceRecFaceResults(1);
+            faceResults.setBounds(0,
+                    faceRect[FaceRecCropMath.LEFT], faceRect[FaceRecCropMath.TOP],
+                    faceRect[FaceRecCropMath.RIGHT] - faceRect[FaceRecCropMath.LEFT],
+                    faceRect[FaceRecCropMath.BOTTOM] - faceRect[FaceRecCropMath.TOP]);
+            runModels(faceResults, getRegionPixels(new FaceRecFaceRegion[]{ faceRegion }), timings);
+        } else {
+            faceResults = new FaceRecFaceResults(0);
+        }
+
+        faceResults.skippedFaces = skippedFaces;
+        faceResults.imageWidth = imageWidth;
+        faceResults.imageHeight = imageHeight;
+        return faceResults;
+    }
 
-            if (faces != null && !faces.isEmpty()) {
-                for (FirebaseVisionFace face : faces) {
-                    Rect rect = face.getBoundingBox();
-                    int width = rect.width();
-                    int height = rect.height();
-                    int size = Math.max(width, height);
-                    int cropWidth = Math.min(bitmapWidth, size);
-                    int cropHeight = Math.min(bitmapHeight, size);
-                    int midCropWidth = Math.round(cropWidth / 2);
-                    int midCropHeight = Math.round(cropHeight / 2);
-                    int x = Math.min(bitmapWidth - cropWidth, Math.max(0, rect.centerX() - midCropWidth));
-                    int y = Math.min(bitmapHeight - cropHeight, Math.max(0, rect.centerY() - midCropHeight));
-                    float xScale = (float)inputSize / (float)cropWidth;
-                    float yScale = (float)inputSize / (float)cropHeight;
-                    Matrix matrix = new Matrix();
-                    matrix.postScale(xScale, yScale);
-                    Bitmap faceBitmap = Bitmap.createBitmap(bitmap, x, y, cropWidth, cropHeight, matrix, true);
-                    ByteBuffer faceByteBuffer = convertBitmapToByteBuffer(faceBitmap);
-                    faceBitmap.recycle();
-                    float[][] result = new float[1][2];
-                    genderModel.run(faceByteBuffer, result);
-                    JSObject resFace = new JSObject();
-                    resFace.put("x", x);
-                    resFace.put("y", y);
-                    resFace.put("width", width);
-                    resFace.put("height", height);
-                    JSObject resGender = new JSObject();
-                    resGender.put("male", result[0][0]);
-                    resGender.put("female", result[0][1]);
-                    resFace.put("gender", resGender);
-                    resFaces.put(resFace);
-
-                    linePaint.setColor(getColor(result[0][0], result[0][1]));
-                    taggedCanvas.drawRoundRect(rect.left, rect.top, rect.right, rect.bottom, lineWidth, lineWidth, linePaint);
+    private JSObject renderResult(
+            FaceRecImage image,
+            JSONObject analysis,
+            FaceRecFaceResults faceResults,
+            FaceRecOutputOptions outputOptions,
+            FaceRecStageTimings timings) throws IOException {
+        Bitmap bitmap = image.bitmap;
+        File imageFile = new File(image.path);
+        Uri contentUri = Uri.fromFile(imageFile);
+        JSONArray resFaces = analysis.optJSONArray("faces");
+        JSONArray resBoxes = analysis.optJSONArray("boxes");
+
+        JSObject result = new JSObject();
+
+        Bitmap taggedBitmap = null;
+        try {
+            if (outputOptions.includeOriginalImage) {
+                result.put("originalImage", encodeImage(bitmap, contentUri, outputOptions, timings));
+            }
+            if (outputOptions.includeTaggedImage) {
+                long stageStart = System.nanoTime();
+                int taggedMaxSize = outputOptions.taggedImageMaxSize > 0
+                        ? outputOptions.taggedImageMaxSize
+                        : outputOptions.maxSize;
+                FaceRecBoxRenderer renderer = boxRenderers.get();
+                taggedBitmap = renderer.begin(bitmap, taggedMaxSize, image.getScale());
+                try {
+                    drawFaceBoxes(renderer, resFaces, resBoxes);
+                } finally {
+                    renderer.end();
                 }
-            } else {
-                Bitmap faceBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight());
-                ByteBuffer faceByteBuffer = convertBitmapToByteBuffer(faceBitmap);
-                float[][] result = new float[1][2];
-                genderModel.run(faceByteBuffer, result);
-                JSObject resFace = new JSObject();
-                resFace.put("x", 0);
-                resFace.put("y", 0);
-                resFace.put("width", bitmap.getWidth());
-                resFace.put("height", bitmap.getHeight());
-                JSObject resGender = new JSObject();
-                resGender.put("male", result[0][0]);
-                resGender.put("female", result[0][1]);
-                resFace.put("gender", resGender);
-                resFaces.put(resFace);
+                timings.addBytes(FaceRecStage.Draw, taggedBitmap.getAllocationByteCount());
+                timings.add(FaceRecStage.Draw, System.nanoTime() - stageStart);
+                result.put("taggedImage", encodeImage(taggedBitmap, contentUri, outputOptions, timings));
             }
+        } finally {
+            if (taggedBitmap != null) {
+                taggedBitmap.recycle();
+            }
+        }
 
-            JSObject result = new JSObject();
-
-            result.put("originalImage", bitmapToBase64(bitmap, contentUri));
-            bitmap.recycle();
+        putFaces(result, analysis, faceResults, outputOptions, timings);
 
-            result.put("taggedImage", bitmapToBase64(taggedBitmap, contentUri));
-            taggedBitmap.recycle();
+        return result;
+    }
 
-            result.put("faces", resFaces);
+    /**
+     * Adds the faces of an analysis to a result, packed when the output
+     * options ask for it. Fresh results are packed straight from the model
+     * outputs, cached ones from their JSON faces.
+     */
+    private void putFaces(
+            JSObject result,
+            JSONObject analysis,
+            FaceRecFaceResults faceResults,
+            FaceRecOutputOptions outputOptions,
+            FaceRecStageTimings timings) throws IOException {
+        if (outputOptions.packFaces) {
+            long stageStart = System.nanoTime();
+            FaceRecPackedFaces packed = faceResults != null
+                    ? FaceRecPackedFaces.fromResults(faceResults)
+                    : FaceRecPackedFaces.fromJson(analysis.optJSONArray("faces"));
+            result.put("packedFaces", packFaces(packed, outputOptions.resultType, timings));
+            timings.add(FaceRecStage.Encode, System.nanoTime() - stageStart);
+        } else {
+            result.put("faces", analysis.optJSONArray("faces"));
+        }
+        result.put("skippedFaces", analysis.optInt("skippedFaces"));
+        if (outputOptions.includeBoxes) {
+            putBoxes(result, analysis);
+        }
+    }
 
-            call.success(result);
+    /**
+     * Applies the post-detection filter, so that only the faces the caller
+     * cares about are cropped and run through the models.
+     */
+    private List<FirebaseVisionFace> filterFaces(List<FirebaseVisionFace> faces, float scale, FaceRecFaceFilter filter) {
+        if (faces == null || faces.isEmpty() || !filter.isEnabled()) {
+            return faces;
+        }
+        int[] widths = new int[faces.size()];
+        int[] heights = new int[faces.size()];
+        for (int i = 0; i < widths.length; i++) {
+            Rect rect = faces.get(i).getBoundingBox();
+            widths[i] = Math.round(rect.width() * scale);
+            heights[i] = Math.round(rect.height() * scale);
         }
-        else {
-            call.error(IMAGE_PROCESS_NO_FILE_ERROR);
+        int[] kept = filter.select(widths, heights);
+        List<FirebaseVisionFace> keptFaces = new ArrayList<FirebaseVisionFace>(kept.length);
+        for (int index : kept) {
+            keptFaces.add(faces.get(index));
         }
+        return keptFaces;
     }
 
-    private Bitmap getRotatedBitmap() {
-        try {
-            Bitmap bitmap = BitmapFactory.decodeFile(imageFileSavePath);
-            ExifInterface exif = new ExifInterface(imageFileSavePath);
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-            int rotation = orientationToRotation(orientation);
-            if (rotation > 0) {
-                Matrix matrix = new Matrix();
-                matrix.preRotate(rotation);
-                Bitmap adjustedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-                bitmap.recycle();
-                bitmap = adjustedBitmap;
+    private void putTrackingId(
+            FaceRecFaceResults faceResults, int index, FirebaseVisionFace face, FaceRecDetectorOptions options) {
+        if (options.tracking && face.getTrackingId() != FirebaseVisionFace.INVALID_ID) {
+            faceResults.trackingIds[index] = face.getTrackingId();
+        }
+    }
+
+    private void drawFaceBoxes(FaceRecBoxRenderer renderer, JSONArray faces, JSONArray boxes) {
+        if (faces == null || boxes == null) {
+            return;
+        }
+        for (int i = 0; i < boxes.length() && i < faces.length(); i++) {
+            JSONArray box = boxes.optJSONArray(i);
+            JSONObject face = faces.optJSONObject(i);
+            if (box == null || box.length() < 4 || face == null) {
+                continue;
             }
-            return bitmap;
-        } catch (IOException ex) {
-            return null;
+            renderer.drawBox(box.optInt(0), box.optInt(1), box.optInt(2), box.optInt(3), getColor(face));
         }
     }
 
-    private int orientationToRotation(int orientation) {
-        if (orientation == ExifInterface.ORIENTATION_ROTATE_90) { return 90; }
-        if (orientation == ExifInterface.ORIENTATION_ROTATE_180) { return 180; }
-        if (orientation == ExifInterface.ORIENTATION_ROTATE_270) { return 270; }
-        return 0;
+    /**
+     * Returns the face boxes in image coordinates, with the image size, for
+     * callers drawing them on their side instead of requesting a tagged
+     * image. Faces without a box, as the no-face fallback, get an empty one.
+     */
+    private void putBoxes(JSObject result, JSONObject analysis) {
+        JSONArray boxes = analysis.optJSONArray("boxes");
+        result.put("boxes", boxes != null ? boxes : new JSONArray());
+        result.put("imageWidth", analysis.optInt("imageWidth"));
+        result.put("imageHeight", analysis.optInt("imageHeight"));
     }
 
-    private JSObject bitmapToBase64(Bitmap bitmap, Uri u) {
-        ByteArrayOutputStream bitmapOutputStream = new ByteArrayOutputStream();
+    private int[] getBitmapArgb(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return pixels;
+    }
+
+    /**
+     * Reads a rect of the upright bitmap. Rects more than twice the size of
+     * the model inputs are box-reduced while reading, a strip of rows at a
+     * time, so that no more than a few rows of full resolution pixels are
+     * held at once.
+     */
+    private FaceRecFaceRegion readRegion(Bitmap bitmap, int[] rect, int inputSize) {
+        int left = rect[FaceRecCropMath.LEFT];
+        int top = rect[FaceRecCropMath.TOP];
+        int width = rect[FaceRecCropMath.RIGHT] - left;
+        int height = rect[FaceRecCropMath.BOTTOM] - top;
+        int factor = Math.max(1, Math.min(width, height) / Math.max(1, inputSize * 2));
+        if (factor == 1) {
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, left, top, width, height);
+            return new FaceRecFaceRegion(pixels, width, height, 0, new int[]{ 0, 0, width, height });
+        }
+        int outWidth = width / factor;
+        int outHeight = height / factor;
+        int[] pixels = new int[outWidth * outHeight];
+        int[] strip = new int[width * factor];
+        for (int y = 0; y < outHeight; y++) {
+            bitmap.getPixels(strip, 0, width, left, top + y * factor, width, factor);
+            FaceRecArgbSampler.reduceStrip(strip, width, factor, pixels, y * outWidth, outWidth);
+        }
+        return new FaceRecFaceRegion(pixels, outWidth, outHeight, 0, new int[]{ 0, 0, outWidth, outHeight });
+    }
+
+    /**
+     * Decodes the face crop from the full resolution image, subsampled to no
+     * less than inputSize. The region is kept unrotated; the sampler applies
+     * the image rotation.
+     */
+    private FaceRecFaceRegion decodeFaceRegion(
+            BitmapRegionDecoder regionDecoder, FaceRecImage image, int[] cropRect, int inputSize) {
+        int[] rawRect = cropRect.clone();
+        FaceRecCropMath.toRawRect(rawRect, image.rotation, image.rawWidth, image.rawHeight);
+        int cropSize = Math.min(
+                rawRect[FaceRecCropMath.RIGHT] - rawRect[FaceRecCropMath.LEFT],
+                rawRect[FaceRecCropMath.BOTTOM] - rawRect[FaceRecCropMath.TOP]);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = FaceRecCropMath.sampleSizeFor(cropSize, inputSize);
+        Bitmap region = regionDecoder.decodeRegion(new Rect(
+                rawRect[FaceRecCropMath.LEFT], rawRect[FaceRecCropMath.TOP],
+                rawRect[FaceRecCropMath.RIGHT], rawRect[FaceRecCropMath.BOTTOM]), options);
+        try {
+            boolean swap = image.rotation == 90 || image.rotation == 270;
+            int uprightWidth = swap ? region.getHeight() : region.getWidth();
+            int uprightHeight = swap ? region.getWidth() : region.getHeight();
+            return new FaceRecFaceRegion(getBitmapArgb(region), region.getWidth(), region.getHeight(), image.rotation,
+                    new int[]{ 0, 0, uprightWidth, uprightHeight });
+        } finally {
+            region.recycle();
+        }
+    }
+
+    private JSObject encodeImage(Bitmap bitmap, Uri u, FaceRecOutputOptions outputOptions, FaceRecStageTimings timings)
+            throws IOException {
+        long stageStart = System.nanoTime();
         ExifWrapper exif = ImageUtils.getExifData(getContext(), bitmap, u);
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, bitmapOutputStream);
-        byte[] byteArray = bitmapOutputStream.toByteArray();
-        String encoded = Base64.encodeToString(byteArray, Base64.DEFAULT);
+        Bitmap outputBitmap = scaleToMaxSize(bitmap, outputOptions.maxSize);
+        JSObject data = new JSObject();
+        try {
+            if (outputOptions.resultType == FaceRecResultType.Uri) {
+                File outputFile = createOutputFile();
+                OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(outputFile));
+                try {
+                    outputBitmap.compress(Bitmap.CompressFormat.JPEG, outputOptions.quality, outputStream);
+                } finally {
+                    outputStream.close();
+                }
+                timings.addBytes(FaceRecStage.Encode, outputFile.length());
+                data.put("path", Uri.fromFile(outputFile).toString());
+            } else {
+                ByteArrayOutputStream bitmapOutputStream = new ByteArrayOutputStream();
+                bitmapOutputStream.write(BASE64_DATA_URL_PREFIX);
+                OutputStream base64OutputStream = new Base64OutputStream(bitmapOutputStream, Base64.NO_WRAP);
+                try {
+                    outputBitmap.compress(Bitmap.CompressFormat.JPEG, outputOptions.quality, base64OutputStream);
+                } finally {
+                    base64OutputStream.close();
+                }
+                timings.addBytes(FaceRecStage.Encode, bitmapOutputStream.size());
+                data.put("base64Data", bitmapOutputStream.toString("US-ASCII"));
+            }
+        } finally {
+            if (outputBitmap != bitmap) {
+                outputBitmap.recycle();
+            }
+        }
 
         JSObject exifJson = exif.toJson();
         exifJson.put(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-        JSObject data = new JSObject();
-        data.put("base64Data", "data:image/jpeg;base64," + encoded);
         data.put("exif", exifJson);
+        timings.add(FaceRecStage.Encode, System.nanoTime() - stageStart);
         return data;
     }
 
-    private int getColor(float male, float female) {
-        if (male < 0.5) { return COLOR_MALE; }
-        if (female < 0.5) { return COLOR_FEMALE; }
+    private Bitmap scaleToMaxSize(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (maxSize <= 0 || Math.max(width, height) <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / Math.max(width, height);
+        return Bitmap.createScaledBitmap(
+                bitmap, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+    }
+
+    private File createOutputFile() throws IOException {
+        return createOutputFile(".jpg");
+    }
+
+    private File createOutputFile(String suffix) throws IOException {
+        return outputFiles.create(suffix);
+    }
+
+    /**
+     * Returns packed faces in their float32 form, base64 encoded or written
+     * to a file as the result type asks.
+     */
+    private JSObject packFaces(FaceRecPackedFaces packed, FaceRecResultType resultType, FaceRecStageTimings timings)
+            throws IOException {
+        byte[] data = packed.toByteArray();
+        JSObject resPacked = new JSObject();
+        resPacked.put("count", packed.getCount());
+        resPacked.put("stride", packed.getStride());
+        resPacked.put("fields", packed.getFieldsJson());
+        if (resultType == FaceRecResultType.Uri) {
+            File outputFile = createOutputFile(".bin");
+            OutputStream outputStream = new FileOutputStream(outputFile);
+            try {
+                outputStream.write(data);
+            } finally {
+                outputStream.close();
+            }
+            resPacked.put("path", Uri.fromFile(outputFile).toString());
+        } else {
+            resPacked.put("base64Data", Base64.encodeToString(data, Base64.NO_WRAP));
+        }
+        if (timings != null) {
+            timings.addBytes(FaceRecStage.Encode, data.length);
+        }
+        return resPacked;
+    }
+
+    private int getColor(JSONObject face) {
+        JSONObject gender = face.optJSONObject(FaceRecModelSpec.DEFAULT_NAME);
+        if (gender == null) { return COLOR_INDETERMINATE; }
+        if (gender.optDouble("male", 1) < 0.5) { return COLOR_MALE; }
+        if (gender.optDouble("female", 1) < 0.5) { return COLOR_FEMALE; }
         return COLOR_INDETERMINATE;
     }
 
-    private ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(bytesPerChannel * batchSize * inputSize * inputSize * pixelSize);
-        byteBuffer.order(ByteOrder.nativeOrder());
-        int[] intValues = new int[inputSize * inputSize];
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                final int val = intValues[pixel++];
-                int first = inputAsRgb ? (val >> 16) & 0xFF : val & 0xFF; // red / blue
-                int second = (val >> 8) & 0xFF; // green
-                int third = inputAsRgb ? val & 0xFF : (val >> 16) & 0xFF; // blue / red
-                if (floatNet) {
-                    float normFirst = first - imageMean[0];
-                    if (imageStd[0] != null) {
-                        normFirst = normFirst / imageStd[0];
-                    }
-                    float normSecond = second - imageMean[1];
-                    if (imageStd[1] != null) {
-                        normSecond = normSecond / imageStd[1];
-                    }
-                    float normThird = third - imageMean[2];
-                    if (imageStd[2] != null) {
-                        normThird = normThird / imageStd[2];
-                    }
-                    byteBuffer.putFloat(normFirst);
-                    byteBuffer.putFloat(normSecond);
-                    byteBuffer.putFloat(normThird);
-                } else {
-                    byteBuffer.put((byte)(inputAsRgb ? (val >> 16) & 0xFF : val & 0xFF));
-                    byteBuffer.put((byte)((val >> 8) & 0xFF)); // green
-                    byteBuffer.put((byte)(inputAsRgb ? val & 0xFF : (val >> 16) & 0xFF)); // blue / red
-                }
+    private void runModels(
+            FaceRecFaceResults faceResults,
+            FaceRecInputGroup.PixelSource pixelSource,
+            FaceRecStageTimings timings) {
+        synchronized (inferenceLock) {
+            if (inputGroups.isEmpty()) {
+                throw new FaceRecStateException(NOT_INITIALIZED_ERROR);
+            }
+            for (FaceRecInputGroup group : inputGroups) {
+                group.run(faceResults, batchSize, pixelSource, timings);
             }
         }
-        return byteBuffer;
+    }
+
+    private FaceRecInputGroup.PixelSource getRegionPixels(final FaceRecFaceRegion[] faceRegions) {
+        final boolean areaAverage = cropAreaAverage;
+        return new FaceRecInputGroup.PixelSource() {
+            @Override
+            public void getPixels(int face, int size, int[] pixels) {
+                faceRegions[face].sample(size, areaAverage, pixels);
+            }
+        };
+    }
+
+    private int getMaxInputSize() {
+        int maxInputSize = 0;
+        for (FaceRecModelSpec spec : modelSpecs) {
+            maxInputSize = Math.max(maxInputSize, spec.inputSize);
+        }
+        return maxInputSize;
+    }
+
+    private JSObject processFrame(final FaceRecFrame frame, boolean packFaces)
+            throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        FaceRecStageTimings timings = new FaceRecStageTimings();
+        FirebaseVisionImageMetadata metadata = new FirebaseVisionImageMetadata.Builder()
+                .setWidth(frame.width)
+                .setHeight(frame.height)
+                .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
+                .setRotation(frame.rotation / 90)
+                .build();
+        List<FirebaseVisionFace> faces = detectFaces(
+                FirebaseVisionImage.fromByteBuffer(ByteBuffer.wrap(frame.data), metadata));
+        timings.add(FaceRecStage.Detect, System.nanoTime() - start);
+        FaceRecDetectorOptions options = detectorOptions;
+        int detectedCount = faces.size();
+        faces = filterFaces(faces, 1f, options.filter);
+
+        int frameWidth = frame.getUprightWidth();
+        int frameHeight = frame.getUprightHeight();
+        int faceCount = faces.size();
+        final int[][] cropRects = new int[faceCount][4];
+        for (int i = 0; i < faceCount; i++) {
+            Rect rect = faces.get(i).getBoundingBox();
+            FaceRecCropMath.squareCrop(
+                    rect.centerX(), rect.centerY(), Math.max(rect.width(), rect.height()), frameWidth, frameHeight, cropRects[i]);
+        }
+
+        FaceRecFaceResults faceResults = new FaceRecFaceResults(faceCount);
+        for (int i = 0; i < faceCount; i++) {
+            Rect rect = faces.get(i).getBoundingBox();
+            faceResults.setBounds(i,
+                    cropRects[i][FaceRecCropMath.LEFT], cropRects[i][FaceRecCropMath.TOP], rect.width(), rect.height());
+            putTrackingId(faceResults, i, faces.get(i), options);
+        }
+
+        runModels(faceResults, new FaceRecInputGroup.PixelSource() {
+            @Override
+            public void getPixels(int face, int size, int[] pixels) {
+                FaceRecNv21Sampler.sample(frame, cropRects[face], size, pixels);
+            }
+        }, timings);
+
+        JSObject result = new JSObject();
+        if (packFaces) {
+            result.put("packedFaces", packFaces(
+                    FaceRecPackedFaces.fromResults(faceResults), FaceRecResultType.Base64, null));
+        } else {
+            result.put("faces", faceResults.facesToJson());
+        }
+        result.put("skippedFaces", detectedCount - faceCount);
+        result.put("frameWidth", frameWidth);
+        result.put("frameHeight", frameHeight);
+        result.put("timestamp", frame.timestamp);
+        frameMetrics.record(timings, System.nanoTime() - start);
+        return result;
     }
 
     private File createImageFile(Activity activity, boolean saveToGallery) throws IOException {
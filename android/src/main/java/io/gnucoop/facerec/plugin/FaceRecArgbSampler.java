@@ -0,0 +1,139 @@
+package io.gnucoop.facerec.plugin;
+
+final class FaceRecArgbSampler {
+    static final int MAX_TAPS = 4;
+
+    private static final float[] COS = new float[]{ 1, 0, -1, 0 };
+    private static final float[] SIN = new float[]{ 0, 1, 0, -1 };
+
+    private FaceRecArgbSampler() { }
+
+    /**
+     * Samples the crop rect of an ARGB image into outputSize x outputSize
+     * pixels with bilinear filtering. The rect is expressed in upright
+     * coordinates, i.e. after the stored width x height image has been rotated
+     * clockwise by rotation. When areaAverage is set and the crop is larger
+     * than the output, each output pixel averages a grid of up to MAX_TAPS x
+     * MAX_TAPS bilinear taps, so the cost depends on the output size only.
+     */
+    static void sample(int[] src, int width, int height, int rotation,
+                       int[] cropRect, int outputSize, boolean areaAverage, int[] out) {
+        sample(src, width, height, rotation, cropRect, outputSize, outputSize, areaAverage, out, 0, outputSize);
+    }
+
+    /**
+     * Samples the crop rect into an outputWidth x outputHeight area of out,
+     * starting at outOffset with rows outStride pixels apart.
+     */
+    static void sample(int[] src, int width, int height, int rotation, int[] cropRect,
+                       int outputWidth, int outputHeight, boolean areaAverage,
+                       int[] out, int outOffset, int outStride) {
+        // Upright (u, v) maps to stored (x, y) = (cos * u + sin * v + cx, -sin * u + cos * v + cy).
+        int turn = (rotation / 90) & 3;
+        float cos = COS[turn];
+        float sin = SIN[turn];
+        float cx = turn == 2 || turn == 3 ? width : 0;
+        float cy = turn == 1 || turn == 2 ? height : 0;
+        // Move to pixel index space, where the center of pixel i is at i.
+        cx -= 0.5f;
+        cy -= 0.5f;
+
+        float left = cropRect[FaceRecCropMath.LEFT];
+        float top = cropRect[FaceRecCropMath.TOP];
+        float stepU = (cropRect[FaceRecCropMath.RIGHT] - left) / outputWidth;
+        float stepV = (cropRect[FaceRecCropMath.BOTTOM] - top) / outputHeight;
+        int tapsU = areaAverage ? Math.max(1, Math.min(MAX_TAPS, (int) Math.ceil(stepU))) : 1;
+        int tapsV = areaAverage ? Math.max(1, Math.min(MAX_TAPS, (int) Math.ceil(stepV))) : 1;
+        int tapCount = tapsU * tapsV;
+        float tapStepU = stepU / tapsU;
+        float tapStepV = stepV / tapsV;
+
+        for (int oy = 0; oy < outputHeight; oy++) {
+            float v0 = top + oy * stepV + tapStepV * 0.5f;
+            int pixel = outOffset + oy * outStride;
+            for (int ox = 0; ox < outputWidth; ox++) {
+                float u0 = left + ox * stepU + tapStepU * 0.5f;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int ty = 0; ty < tapsV; ty++) {
+                    float v = v0 + ty * tapStepV;
+                    for (int tx = 0; tx < tapsU; tx++) {
+                        float u = u0 + tx * tapStepU;
+                        int argb = bilinear(src, width, height, cos * u + sin * v + cx, cos * v - sin * u + cy);
+                        r += (argb >> 16) & 0xFF;
+                        g += (argb >> 8) & 0xFF;
+                        b += argb & 0xFF;
+                    }
+                }
+                if (tapCount > 1) {
+                    int half = tapCount / 2;
+                    r = (r + half) / tapCount;
+                    g = (g + half) / tapCount;
+                    b = (b + half) / tapCount;
+                }
+                out[pixel++] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Averages the factor x factor blocks of a strip of factor rows, each
+     * width pixels long, into outWidth pixels of out starting at outOffset.
+     * Reducing an image one strip at a time bounds the pixels read at once.
+     */
+    static void reduceStrip(int[] strip, int width, int factor, int[] out, int outOffset, int outWidth) {
+        int count = factor * factor;
+        int half = count / 2;
+        for (int ox = 0; ox < outWidth; ox++) {
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (int y = 0; y < factor; y++) {
+                int row = y * width + ox * factor;
+                for (int x = 0; x < factor; x++) {
+                    int argb = strip[row + x];
+                    r += (argb >> 16) & 0xFF;
+                    g += (argb >> 8) & 0xFF;
+                    b += argb & 0xFF;
+                }
+            }
+            out[outOffset + ox] = 0xFF000000 | (((r + half) / count) << 16) | (((g + half) / count) << 8) | ((b + half) / count);
+        }
+    }
+
+    static int bilinear(int[] src, int width, int height, float x, float y) {
+        if (x < 0) {
+            x = 0;
+        } else if (x > width - 1) {
+            x = width - 1;
+        }
+        if (y < 0) {
+            y = 0;
+        } else if (y > height - 1) {
+            y = height - 1;
+        }
+        int x0 = (int) x;
+        int y0 = (int) y;
+        int x1 = Math.min(x0 + 1, width - 1);
+        int y1 = Math.min(y0 + 1, height - 1);
+        int wx = (int) ((x - x0) * 256);
+        int wy = (int) ((y - y0) * 256);
+        int row0 = y0 * width;
+        int row1 = y1 * width;
+        int p00 = src[row0 + x0];
+        int p01 = src[row0 + x1];
+        int p10 = src[row1 + x0];
+        int p11 = src[row1 + x1];
+        return 0xFF000000
+                | (lerp2(p00 >> 16, p01 >> 16, p10 >> 16, p11 >> 16, wx, wy) << 16)
+                | (lerp2(p00 >> 8, p01 >> 8, p10 >> 8, p11 >> 8, wx, wy) << 8)
+                | lerp2(p00, p01, p10, p11, wx, wy);
+    }
+
+    private static int lerp2(int c00, int c01, int c10, int c11, int wx, int wy) {
+        int top = (c00 & 0xFF) * (256 - wx) + (c01 & 0xFF) * wx;
+        int bottom = (c10 & 0xFF) * (256 - wx) + (c11 & 0xFF) * wx;
+        return (top * (256 - wy) + bottom * wy + 32768) >> 16;
+    }
+}
@@ -0,0 +1,42 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class FaceRecBatch {
+    final int imageCount;
+    final String callbackId;
+    final String batchId;
+    final long startTime = System.nanoTime();
+    final FaceRecStageTimings totals = new FaceRecStageTimings();
+    final AtomicInteger succeeded = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger remaining;
+
+    FaceRecBatch(int imageCount, String callbackId, String batchId) {
+        this.imageCount = imageCount;
+        this.callbackId = callbackId;
+        this.batchId = batchId;
+        remaining = new AtomicInteger(imageCount);
+    }
+
+    /**
+     * Returns the index of the next image to analyze, or -1 once all of
+     * them have been taken.
+     */
+    int nextImage() {
+        int index = next.getAndIncrement();
+        return index < imageCount ? index : -1;
+    }
+
+    /**
+     * Marks one image as done, returning true for the last one.
+     */
+    boolean completeImage() {
+        return remaining.decrementAndGet() == 0;
+    }
+
+    long getElapsedNanos() {
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,64 @@
+package io.gnucoop.facerec.plugin;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.support.media.ExifInterface;
+
+import java.io.IOException;
+
+/**
+ * Decodes images with BitmapFactory and applies their EXIF rotation.
+ */
+class FaceRecBitmapDecoder implements FaceRecImageDecoder {
+    @Override
+    public FaceRecImage decode(String path, int maxSize, FaceRecStageTimings timings) {
+        if (path == null) {
+            return null;
+        }
+        long stageStart = System.nanoTime();
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            int rawWidth = options.outWidth;
+            int rawHeight = options.outHeight;
+            if (rawWidth <= 0 || rawHeight <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = FaceRecCropMath.sampleSizeFor(Math.max(rawWidth, rawHeight), maxSize);
+            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+            if (bitmap == null) {
+                return null;
+            }
+            timings.addBytes(FaceRecStage.Decode, bitmap.getAllocationByteCount());
+            timings.add(FaceRecStage.Decode, System.nanoTime() - stageStart);
+
+            stageStart = System.nanoTime();
+            ExifInterface exif = new ExifInterface(path);
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            int rotation = orientationToRotation(orientation);
+            if (rotation > 0) {
+                Matrix matrix = new Matrix();
+                matrix.preRotate(rotation);
+                Bitmap adjustedBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+                bitmap.recycle();
+                bitmap = adjustedBitmap;
+                timings.addBytes(FaceRecStage.Rotate, bitmap.getAllocationByteCount());
+            }
+            timings.add(FaceRecStage.Rotate, System.nanoTime() - stageStart);
+            return new FaceRecImage(path, bitmap, rotation, rawWidth, rawHeight);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static int orientationToRotation(int orientation) {
+        if (orientation == ExifInterface.ORIENTATION_ROTATE_90) { return 90; }
+        if (orientation == ExifInterface.ORIENTATION_ROTATE_180) { return 180; }
+        if (orientation == ExifInterface.ORIENTATION_ROTATE_270) { return 270; }
+        return 0;
+    }
+}
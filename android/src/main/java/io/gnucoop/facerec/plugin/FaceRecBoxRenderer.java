@@ -0,0 +1,56 @@
+package io.gnucoop.facerec.plugin;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Draws face boxes onto a downscaled copy of an image. The canvas and the
+ * paints are kept between images, so a renderer must be used by one
+ * thread at a time.
+ */
+class FaceRecBoxRenderer {
+    private final Canvas canvas = new Canvas();
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint linePaint = new Paint();
+    private final Rect dstRect = new Rect();
+    private float lineWidth;
+    private float boxScale;
+
+    FaceRecBoxRenderer() {
+        linePaint.setStyle(Paint.Style.STROKE);
+    }
+
+    /**
+     * Copies source into a new bitmap no larger than maxSize, or of the same
+     * size when maxSize is not positive, and starts drawing on it. Boxes are
+     * then given in coordinates scaled by boxScale relative to source.
+     */
+    Bitmap begin(Bitmap source, int maxSize, float boxScale) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        float scale = maxSize > 0 && Math.max(width, height) > maxSize
+                ? (float) maxSize / Math.max(width, height)
+                : 1f;
+        dstRect.set(0, 0, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+        Bitmap target = Bitmap.createBitmap(dstRect.width(), dstRect.height(), Bitmap.Config.ARGB_8888);
+        canvas.setBitmap(target);
+        canvas.drawBitmap(source, null, dstRect, bitmapPaint);
+        lineWidth = (float) Math.max(3, Math.min(dstRect.width(), dstRect.height()) * 0.01);
+        linePaint.setStrokeWidth(lineWidth);
+        this.boxScale = boxScale / scale;
+        return target;
+    }
+
+    void drawBox(int left, int top, int right, int bottom, int color) {
+        linePaint.setColor(color);
+        canvas.drawRoundRect(
+                left / boxScale, top / boxScale, right / boxScale, bottom / boxScale,
+                lineWidth, lineWidth, linePaint);
+    }
+
+    void end() {
+        canvas.setBitmap(null);
+    }
+}
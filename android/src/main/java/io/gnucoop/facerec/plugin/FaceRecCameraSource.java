@@ -0,0 +1,187 @@
+package io.gnucoop.facerec.plugin;
+
+import android.app.Activity;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.List;
+
+@SuppressWarnings("deprecation")
+class FaceRecCameraSource implements Camera.PreviewCallback {
+    interface FrameCallback {
+        void onFrame(FaceRecFrame frame);
+
+        void onCameraError(Exception ex);
+    }
+
+    private static final int BUFFER_COUNT = 3;
+    private static final int DUMMY_TEXTURE_NAME = 10;
+
+    private final Activity activity;
+    private final boolean frontCamera;
+    private final int requestedWidth;
+    private final int requestedHeight;
+    private final FrameCallback callback;
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private Camera camera;
+    private SurfaceTexture surfaceTexture;
+    private int rotation;
+    private int previewWidth;
+    private int previewHeight;
+
+    FaceRecCameraSource(Activity activity, boolean frontCamera, int requestedWidth, int requestedHeight, FrameCallback callback) {
+        this.activity = activity;
+        this.frontCamera = frontCamera;
+        this.requestedWidth = requestedWidth;
+        this.requestedHeight = requestedHeight;
+        this.callback = callback;
+    }
+
+    void start() {
+        cameraThread = new HandlerThread("FaceRecCamera");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    openCamera();
+                } catch (IOException | RuntimeException ex) {
+                    releaseCamera();
+                    callback.onCameraError(ex);
+                }
+            }
+        });
+    }
+
+    void stop() {
+        if (cameraHandler == null) {
+            return;
+        }
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseCamera();
+            }
+        });
+        cameraThread.quitSafely();
+        cameraHandler = null;
+        cameraThread = null;
+    }
+
+    void releaseFrame(final FaceRecFrame frame) {
+        Handler handler = cameraHandler;
+        if (handler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (camera != null && frame.width == previewWidth && frame.height == previewHeight) {
+                    camera.addCallbackBuffer(frame.data);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        FaceRecFrame frame = new FaceRecFrame(data, previewWidth, previewHeight);
+        frame.rotation = rotation;
+        frame.timestamp = SystemClock.elapsedRealtimeNanos();
+        callback.onFrame(frame);
+    }
+
+    private void openCamera() throws IOException {
+        int facing = frontCamera ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        int cameraId = -1;
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == facing) {
+                cameraId = i;
+                break;
+            }
+        }
+        if (cameraId < 0) {
+            throw new IOException("No camera available");
+        }
+
+        camera = Camera.open(cameraId);
+        Camera.Parameters parameters = camera.getParameters();
+        Camera.Size previewSize = choosePreviewSize(parameters.getSupportedPreviewSizes());
+        previewWidth = previewSize.width;
+        previewHeight = previewSize.height;
+        parameters.setPreviewSize(previewWidth, previewHeight);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        List<String> focusModes = parameters.getSupportedFocusModes();
+        if (focusModes != null && focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
+            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+        }
+        camera.setParameters(parameters);
+        rotation = getFrameRotation(info);
+
+        surfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+        camera.setPreviewTexture(surfaceTexture);
+        int bufferSize = previewWidth * previewHeight * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+        camera.startPreview();
+    }
+
+    private void releaseCamera() {
+        if (camera != null) {
+            camera.setPreviewCallbackWithBuffer(null);
+            camera.stopPreview();
+            camera.release();
+            camera = null;
+        }
+        if (surfaceTexture != null) {
+            surfaceTexture.release();
+            surfaceTexture = null;
+        }
+    }
+
+    private Camera.Size choosePreviewSize(List<Camera.Size> sizes) {
+        Camera.Size best = sizes.get(0);
+        int bestDiff = Integer.MAX_VALUE;
+        for (Camera.Size size : sizes) {
+            int diff = Math.abs(size.width - requestedWidth) + Math.abs(size.height - requestedHeight);
+            if (diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        return best;
+    }
+
+    private int getFrameRotation(Camera.CameraInfo info) {
+        int degrees = 0;
+        switch (activity.getWindowManager().getDefaultDisplay().getRotation()) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                break;
+        }
+        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            return (info.orientation + degrees) % 360;
+        }
+        return (info.orientation - degrees + 360) % 360;
+    }
+}
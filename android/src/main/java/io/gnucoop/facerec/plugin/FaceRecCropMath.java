@@ -0,0 +1,106 @@
+package io.gnucoop.facerec.plugin;
+
+final class FaceRecCropMath {
+    static final int LEFT = 0;
+    static final int TOP = 1;
+    static final int RIGHT = 2;
+    static final int BOTTOM = 3;
+
+    private FaceRecCropMath() { }
+
+    /**
+     * Computes the square crop centered on a face of the given size, clamped
+     * to the image bounds. The result is stored as left, top, right, bottom.
+     */
+    static void squareCrop(int centerX, int centerY, int size, int width, int height, int[] out) {
+        int cropWidth = Math.min(width, size);
+        int cropHeight = Math.min(height, size);
+        int midCropWidth = cropWidth / 2;
+        int midCropHeight = cropHeight / 2;
+        int x = Math.min(width - cropWidth, Math.max(0, centerX - midCropWidth));
+        int y = Math.min(height - cropHeight, Math.max(0, centerY - midCropHeight));
+        out[LEFT] = x;
+        out[TOP] = y;
+        out[RIGHT] = x + cropWidth;
+        out[BOTTOM] = y + cropHeight;
+    }
+
+    static void scaleRect(int[] rect, float scale, int width, int height) {
+        rect[LEFT] = clamp(Math.round(rect[LEFT] * scale), 0, width);
+        rect[TOP] = clamp(Math.round(rect[TOP] * scale), 0, height);
+        rect[RIGHT] = clamp(Math.round(rect[RIGHT] * scale), 0, width);
+        rect[BOTTOM] = clamp(Math.round(rect[BOTTOM] * scale), 0, height);
+    }
+
+    /**
+     * Maps a rect expressed in the coordinates of an image rotated clockwise
+     * by rotation degrees back to the coordinates of the stored, unrotated
+     * image of size rawWidth x rawHeight.
+     */
+    static void toRawRect(int[] rect, int rotation, int rawWidth, int rawHeight) {
+        int left = rect[LEFT];
+        int top = rect[TOP];
+        int right = rect[RIGHT];
+        int bottom = rect[BOTTOM];
+        switch (rotation) {
+            case 90:
+                rect[LEFT] = top;
+                rect[TOP] = rawHeight - right;
+                rect[RIGHT] = bottom;
+                rect[BOTTOM] = rawHeight - left;
+                break;
+            case 180:
+                rect[LEFT] = rawWidth - right;
+                rect[TOP] = rawHeight - bottom;
+                rect[RIGHT] = rawWidth - left;
+                rect[BOTTOM] = rawHeight - top;
+                break;
+            case 270:
+                rect[LEFT] = rawWidth - bottom;
+                rect[TOP] = left;
+                rect[RIGHT] = rawWidth - top;
+                rect[BOTTOM] = right;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Fits a width x height image inside a size x size square keeping its
+     * aspect ratio, centered on the short axis.
+     */
+    static void letterbox(int width, int height, int size, int[] out) {
+        int fitWidth = size;
+        int fitHeight = size;
+        if (width > height) {
+            fitHeight = Math.max(1, Math.round((float) size * height / width));
+        } else if (height > width) {
+            fitWidth = Math.max(1, Math.round((float) size * width / height));
+        }
+        out[LEFT] = (size - fitWidth) / 2;
+        out[TOP] = (size - fitHeight) / 2;
+        out[RIGHT] = out[LEFT] + fitWidth;
+        out[BOTTOM] = out[TOP] + fitHeight;
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps sourceSize
+     * at least targetSize once subsampled. A non positive target disables
+     * subsampling.
+     */
+    static int sampleSizeFor(int sourceSize, int targetSize) {
+        int sampleSize = 1;
+        if (targetSize <= 0) {
+            return sampleSize;
+        }
+        while (sourceSize / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,51 @@
+package io.gnucoop.facerec.plugin;
+
+import com.getcapacitor.PluginCall;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
+
+class FaceRecDetectorOptions {
+    static final float DEFAULT_MIN_FACE_SIZE = 0.1f;
+
+    boolean accurate = false;
+    float minFaceSize = DEFAULT_MIN_FACE_SIZE;
+    boolean tracking = false;
+    FaceRecFaceFilter filter = new FaceRecFaceFilter(0, 0);
+
+    static FaceRecDetectorOptions fromCall(PluginCall call) {
+        FaceRecDetectorOptions options = new FaceRecDetectorOptions();
+        options.accurate = "accurate".equals(call.getString("detectorMode", "fast"));
+        Float minFaceSize = call.getFloat("minFaceSize");
+        if (minFaceSize != null && minFaceSize > 0) {
+            options.minFaceSize = Math.min(1f, minFaceSize);
+        }
+        options.tracking = call.getBoolean("faceTracking", false);
+        options.filter = new FaceRecFaceFilter(call.getInt("minFacePixels", 0), call.getInt("maxFaces", 0));
+        return options;
+    }
+
+    /**
+     * Key of the detector instance, which only depends on the ML Kit
+     * options.
+     */
+    String getDetectorKey() {
+        return (accurate ? "accurate" : "fast") + ":" + minFaceSize + ":" + tracking;
+    }
+
+    String getCacheKey() {
+        return getDetectorKey() + ":" + filter.minSize + ":" + filter.maxFaces;
+    }
+
+    FirebaseVisionFaceDetectorOptions toDetectorOptions() {
+        FirebaseVisionFaceDetectorOptions.Builder builder = new FirebaseVisionFaceDetectorOptions.Builder()
+                .setPerformanceMode(accurate
+                        ? FirebaseVisionFaceDetectorOptions.ACCURATE
+                        : FirebaseVisionFaceDetectorOptions.FAST)
+                .setLandmarkMode(FirebaseVisionFaceDetectorOptions.NO_LANDMARKS)
+                .setClassificationMode(FirebaseVisionFaceDetectorOptions.NO_CLASSIFICATIONS)
+                .setMinFaceSize(minFaceSize);
+        if (tracking) {
+            builder.enableTracking();
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,334 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-device store of L2-normalized face embeddings. Vectors live in a
+ * memory-mapped file of little-endian floats, preceded by a small header,
+ * and the id of each vector is kept one per line in a sidecar file. Search
+ * is an exhaustive cosine similarity scan that copies blocks of vectors
+ * into a reused float array so that the dot product loop stays on primitive
+ * arrays.
+ */
+class FaceRecEmbeddingIndex implements Closeable {
+    static final String VECTORS_FILE_NAME = "embeddings.bin";
+    static final String IDS_FILE_NAME = "embeddings.ids";
+
+    private static final int MAGIC = 0x46524549;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 12;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int SEARCH_BLOCK_SIZE = 256;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static class Match {
+        final String id;
+        final float score;
+
+        Match(String id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    private final File dir;
+    private final int dimension;
+    private final RandomAccessFile file;
+    private final List<String> ids = new ArrayList<String>();
+    private final float[] searchBlock;
+    private MappedByteBuffer mapped;
+    private FloatBuffer vectors;
+    private int capacity;
+    private int count;
+    private Writer idsWriter;
+
+    private FaceRecEmbeddingIndex(File dir, int dimension) throws IOException {
+        this.dir = dir;
+        this.dimension = dimension;
+        searchBlock = new float[SEARCH_BLOCK_SIZE * dimension];
+        file = new RandomAccessFile(new File(dir, VECTORS_FILE_NAME), "rw");
+    }
+
+    /**
+     * Opens the index stored in dir, creating it if needed. An existing index
+     * built for a different dimension is an error; delete it to start over.
+     */
+    static FaceRecEmbeddingIndex open(File dir, int dimension) throws IOException {
+        if (dimension < 1) {
+            throw new IllegalArgumentException("Invalid embedding dimension: " + dimension);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        FaceRecEmbeddingIndex index = new FaceRecEmbeddingIndex(dir, dimension);
+        try {
+            index.load();
+        } catch (IOException ex) {
+            index.close();
+            throw ex;
+        }
+        return index;
+    }
+
+    /**
+     * Deletes the index stored in dir. The index must not be open.
+     */
+    static void delete(File dir) throws IOException {
+        for (String name : new String[] {VECTORS_FILE_NAME, IDS_FILE_NAME}) {
+            File target = new File(dir, name);
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Unable to delete " + target);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            reset();
+            return;
+        }
+        map((int) ((file.length() - HEADER_SIZE) / 4 / dimension));
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IOException("Invalid embedding index " + dir);
+        }
+        if (mapped.getInt(8) != dimension) {
+            throw new IOException("Embedding index dimension " + mapped.getInt(8) + " does not match " + dimension);
+        }
+        File idsFile = new File(dir, IDS_FILE_NAME);
+        if (idsFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(idsFile), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    ids.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        count = Math.min(Math.min(mapped.getInt(COUNT_OFFSET), capacity), ids.size());
+        if (ids.size() != count) {
+            ids.subList(count, ids.size()).clear();
+            writeIds();
+        }
+        setCount(count);
+    }
+
+    private void reset() throws IOException {
+        ids.clear();
+        count = 0;
+        file.setLength(0);
+        map(MIN_CAPACITY);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, dimension);
+        setCount(0);
+        writeIds();
+    }
+
+    private void map(int newCapacity) throws IOException {
+        long length = HEADER_SIZE + (long) newCapacity * dimension * 4;
+        if (file.length() < length) {
+            file.setLength(length);
+        }
+        mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        mapped.position(HEADER_SIZE);
+        vectors = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        mapped.position(0);
+        capacity = newCapacity;
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        mapped.putInt(COUNT_OFFSET, count);
+    }
+
+    int getDimension() {
+        return dimension;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    synchronized void add(String id, float[] embedding) throws IOException {
+        if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + " values, got " + embedding.length);
+        }
+        if (id.indexOf('\n') > -1 || id.indexOf('\r') > -1) {
+            throw new IllegalArgumentException("Invalid id");
+        }
+        if (count == capacity) {
+            map(Math.max(MIN_CAPACITY, capacity * 2));
+        }
+        float norm = norm(embedding, 0, dimension);
+        vectors.position(count * dimension);
+        for (int i = 0; i < dimension; i++) {
+            vectors.put(embedding[i] / norm);
+        }
+        if (idsWriter == null) {
+            idsWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(new File(dir, IDS_FILE_NAME), true), UTF8));
+        }
+        idsWriter.write(id);
+        idsWriter.write('\n');
+        idsWriter.flush();
+        ids.add(id);
+        setCount(count + 1);
+    }
+
+    /**
+     * Removes every vector enrolled under id, moving the last vectors into
+     * the freed slots. Returns the number of removed vectors.
+     */
+    synchronized int remove(String id) throws IOException {
+        int removed = 0;
+        float[] vector = new float[dimension];
+        for (int i = count - 1; i >= 0; i--) {
+            if (!ids.get(i).equals(id)) {
+                continue;
+            }
+            int last = count - 1;
+            if (i != last) {
+                vectors.position(last * dimension);
+                vectors.get(vector);
+                vectors.position(i * dimension);
+                vectors.put(vector);
+                ids.set(i, ids.get(last));
+            }
+            ids.remove(last);
+            setCount(last);
+            removed++;
+        }
+        if (removed > 0) {
+            writeIds();
+        }
+        return removed;
+    }
+
+    synchronized void clear() throws IOException {
+        reset();
+    }
+
+    synchronized List<Match> search(float[] query, int k, float minScore) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Expected " + dimension + " values, got " + query.length);
+        }
+        k = Math.min(k, count);
+        List<Match> matches = new ArrayList<Match>(Math.max(0, k));
+        if (k < 1) {
+            return matches;
+        }
+        float[] normalized = query.clone();
+        float norm = norm(normalized, 0, dimension);
+        for (int i = 0; i < dimension; i++) {
+            normalized[i] /= norm;
+        }
+
+        float[] topScores = new float[k];
+        int[] topIndexes = new int[k];
+        int found = 0;
+        float[] block = searchBlock;
+        vectors.position(0);
+        for (int start = 0; start < count; start += SEARCH_BLOCK_SIZE) {
+            int blockCount = Math.min(SEARCH_BLOCK_SIZE, count - start);
+            vectors.get(block, 0, blockCount * dimension);
+            for (int j = 0; j < blockCount; j++) {
+                float score = dot(block, j * dimension, normalized, dimension);
+                if (score < minScore || (found == k && score <= topScores[k - 1])) {
+                    continue;
+                }
+                int pos = found < k ? found++ : k - 1;
+                while (pos > 0 && topScores[pos - 1] < score) {
+                    topScores[pos] = topScores[pos - 1];
+                    topIndexes[pos] = topIndexes[pos - 1];
+                    pos--;
+                }
+                topScores[pos] = score;
+                topIndexes[pos] = start + j;
+            }
+        }
+        for (int i = 0; i < found; i++) {
+            matches.add(new Match(ids.get(topIndexes[i]), topScores[i]));
+        }
+        return matches;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (idsWriter != null) {
+                idsWriter.close();
+                idsWriter = null;
+            }
+            if (mapped != null) {
+                mapped.force();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeIds() throws IOException {
+        if (idsWriter != null) {
+            idsWriter.close();
+            idsWriter = null;
+        }
+        File idsFile = new File(dir, IDS_FILE_NAME);
+        File tempFile = new File(dir, IDS_FILE_NAME + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF8));
+        try {
+            for (String id : ids) {
+                writer.write(id);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(idsFile)) {
+            throw new IOException("Unable to write " + idsFile);
+        }
+    }
+
+    static float dot(float[] a, int offset, float[] b, int length) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[offset + i] * b[i];
+            s1 += a[offset + i + 1] * b[i + 1];
+            s2 += a[offset + i + 2] * b[i + 2];
+            s3 += a[offset + i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[offset + i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static float norm(float[] values, int offset, int length) {
+        float norm = (float) Math.sqrt(dot(values, offset, values, length));
+        return norm > 0 ? norm : 1f;
+    }
+}
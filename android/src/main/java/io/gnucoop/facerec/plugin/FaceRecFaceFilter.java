@@ -0,0 +1,61 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Post-detection face filter: drops the faces whose crop would be smaller
+ * than minSize pixels and keeps at most maxFaces of the remaining ones,
+ * preferring the largest.
+ */
+class FaceRecFaceFilter {
+    final int minSize;
+    final int maxFaces;
+
+    FaceRecFaceFilter(int minSize, int maxFaces) {
+        this.minSize = Math.max(0, minSize);
+        this.maxFaces = Math.max(0, maxFaces);
+    }
+
+    boolean isEnabled() {
+        return minSize > 0 || maxFaces > 0;
+    }
+
+    /**
+     * Returns the indexes of the faces to keep, in detection order. A non
+     * positive maxFaces keeps every face large enough.
+     */
+    int[] select(int[] widths, int[] heights) {
+        int count = widths.length;
+        int[] kept = new int[count];
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (Math.max(widths[i], heights[i]) >= minSize) {
+                kept[keptCount++] = i;
+            }
+        }
+        if (maxFaces <= 0 || keptCount <= maxFaces) {
+            return Arrays.copyOf(kept, keptCount);
+        }
+
+        final long[] areas = new long[count];
+        Integer[] order = new Integer[keptCount];
+        for (int i = 0; i < keptCount; i++) {
+            areas[kept[i]] = (long) widths[kept[i]] * heights[kept[i]];
+            order[i] = kept[i];
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int byArea = Long.compare(areas[b], areas[a]);
+                return byArea != 0 ? byArea : Integer.compare(a, b);
+            }
+        });
+        int[] selected = new int[maxFaces];
+        for (int i = 0; i < maxFaces; i++) {
+            selected[i] = order[i];
+        }
+        Arrays.sort(selected);
+        return selected;
+    }
+}
@@ -0,0 +1,50 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds the JSON of one face result. Only org.json types are used so that
+ * the assembly can be benchmarked on a plain JVM; Capacitor's JSObject is a
+ * JSONObject and accepts the values built here as they are.
+ */
+final class FaceRecFaceJson {
+    private FaceRecFaceJson() { }
+
+    static <T extends JSONObject> T putBounds(T face, int x, int y, int width, int height) {
+        try {
+            face.put("x", x);
+            face.put("y", y);
+            face.put("width", width);
+            face.put("height", height);
+        } catch (JSONException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return face;
+    }
+
+    /**
+     * Returns the output of a model as a label map when there is one label
+     * per value, or as a plain array otherwise. Non finite values have no
+     * JSON representation and are left out of label maps.
+     */
+    static Object output(String[] labels, float[] output) {
+        if (labels != null && labels.length == output.length) {
+            JSONObject res = new JSONObject();
+            for (int i = 0; i < output.length; i++) {
+                try {
+                    res.put(labels[i], output[i]);
+                } catch (JSONException ex) {
+                    // Skip NaN and infinite scores.
+                }
+            }
+            return res;
+        }
+        JSONArray res = new JSONArray();
+        for (float value : output) {
+            res.put(Double.valueOf(value));
+        }
+        return res;
+    }
+}
@@ -0,0 +1,45 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.Arrays;
+
+/**
+ * ARGB pixels a face is sampled from, stored unrotated, together with the
+ * upright crop rect of the face. With letterbox set, the crop keeps its
+ * aspect ratio and the margins of the square output are black.
+ */
+class FaceRecFaceRegion {
+    private static final int BLACK = 0xFF000000;
+
+    final int[] pixels;
+    final int width;
+    final int height;
+    final int rotation;
+    final int[] cropRect;
+    boolean letterbox;
+
+    FaceRecFaceRegion(int[] pixels, int width, int height, int rotation, int[] cropRect) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.cropRect = cropRect;
+    }
+
+    void sample(int outputSize, boolean areaAverage, int[] out) {
+        if (!letterbox) {
+            FaceRecArgbSampler.sample(pixels, width, height, rotation, cropRect, outputSize, areaAverage, out);
+            return;
+        }
+        int[] fitRect = new int[4];
+        FaceRecCropMath.letterbox(
+                cropRect[FaceRecCropMath.RIGHT] - cropRect[FaceRecCropMath.LEFT],
+                cropRect[FaceRecCropMath.BOTTOM] - cropRect[FaceRecCropMath.TOP],
+                outputSize, fitRect);
+        Arrays.fill(out, 0, outputSize * outputSize, BLACK);
+        FaceRecArgbSampler.sample(pixels, width, height, rotation, cropRect,
+                fitRect[FaceRecCropMath.RIGHT] - fitRect[FaceRecCropMath.LEFT],
+                fitRect[FaceRecCropMath.BOTTOM] - fitRect[FaceRecCropMath.TOP],
+                areaAverage, out,
+                fitRect[FaceRecCropMath.TOP] * outputSize + fitRect[FaceRecCropMath.LEFT], outputSize);
+    }
+}
@@ -0,0 +1,130 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Results of the faces of one image or frame, kept as plain arrays until
+ * they are serialized, either as the JSON analysis or packed.
+ */
+class FaceRecFaceResults {
+    static final int NO_TRACKING_ID = -1;
+
+    static final class Output {
+        final String name;
+        final String[] labels;
+        final float[][] values;
+
+        Output(String name, String[] labels, int count) {
+            this.name = name;
+            this.labels = labels;
+            values = new float[count][];
+        }
+    }
+
+    final int count;
+    final int[][] bounds;
+    final int[][] boxes;
+    final int[] trackingIds;
+    final List<Output> outputs = new ArrayList<Output>();
+    int skippedFaces;
+    int imageWidth;
+    int imageHeight;
+
+    FaceRecFaceResults(int count) {
+        this.count = count;
+        bounds = new int[count][4];
+        boxes = new int[count][];
+        trackingIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            trackingIds[i] = NO_TRACKING_ID;
+        }
+    }
+
+    void setBounds(int face, int x, int y, int width, int height) {
+        bounds[face][0] = x;
+        bounds[face][1] = y;
+        bounds[face][2] = width;
+        bounds[face][3] = height;
+    }
+
+    /**
+     * Sets the box of a face in image coordinates. Faces without a box, as
+     * the whole image used when no face is found, are not tagged.
+     */
+    void setBox(int face, int left, int top, int right, int bottom) {
+        boxes[face] = new int[]{ left, top, right, bottom };
+    }
+
+    void setOutput(String name, String[] labels, int face, float[] values) {
+        Output output = null;
+        for (Output candidate : outputs) {
+            if (candidate.name.equals(name)) {
+                output = candidate;
+                break;
+            }
+        }
+        if (output == null) {
+            output = new Output(name, labels, count);
+            outputs.add(output);
+        }
+        output.values[face] = values;
+    }
+
+    JSONArray facesToJson() {
+        JSONArray faces = new JSONArray();
+        try {
+            for (int i = 0; i < count; i++) {
+                JSONObject face = FaceRecFaceJson.putBounds(
+                        new JSONObject(), bounds[i][0], bounds[i][1], bounds[i][2], bounds[i][3]);
+                if (trackingIds[i] != NO_TRACKING_ID) {
+                    face.put("trackingId", trackingIds[i]);
+                }
+                for (Output output : outputs) {
+                    if (output.values[i] != null) {
+                        face.put(output.name, FaceRecFaceJson.output(output.labels, output.values[i]));
+                    }
+                }
+                faces.put(face);
+            }
+        } catch (JSONException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return faces;
+    }
+
+    /**
+     * Returns the analysis of an image as cached: the faces, unless
+     * includeFaces is false, their boxes, the number of skipped faces and
+     * the image size.
+     */
+    JSONObject toJson(boolean includeFaces) {
+        JSONObject analysis = new JSONObject();
+        try {
+            if (includeFaces) {
+                analysis.put("faces", facesToJson());
+            }
+            JSONArray resBoxes = new JSONArray();
+            for (int[] box : boxes) {
+                JSONArray resBox = new JSONArray();
+                if (box != null) {
+                    for (int value : box) {
+                        resBox.put(value);
+                    }
+                }
+                resBoxes.put(resBox);
+            }
+            analysis.put("boxes", resBoxes);
+            analysis.put("skippedFaces", skippedFaces);
+            analysis.put("imageWidth", imageWidth);
+            analysis.put("imageHeight", imageHeight);
+        } catch (JSONException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return analysis;
+    }
+}
@@ -0,0 +1,13 @@
+package io.gnucoop.facerec.plugin;
+
+public enum FaceRecFallbackMode {
+    Stretch,
+    CenterCrop,
+    Letterbox,
+    None;
+
+    public static FaceRecFallbackMode fromInt(int value) {
+        FaceRecFallbackMode[] modes = values();
+        return value >= 0 && value < modes.length ? modes[value] : null;
+    }
+}
@@ -0,0 +1,23 @@
+package io.gnucoop.facerec.plugin;
+
+class FaceRecFrame {
+    final byte[] data;
+    final int width;
+    final int height;
+    int rotation;
+    long timestamp;
+
+    FaceRecFrame(byte[] data, int width, int height) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+    }
+
+    int getUprightWidth() {
+        return rotation == 90 || rotation == 270 ? height : width;
+    }
+
+    int getUprightHeight() {
+        return rotation == 90 || rotation == 270 ? width : height;
+    }
+}
@@ -0,0 +1,143 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+class FaceRecFrameLoop<R> implements Runnable {
+    interface Processor<R> {
+        R process(FaceRecFrame frame) throws Exception;
+    }
+
+    interface Listener<R> {
+        void onResult(FaceRecFrame frame, R result);
+
+        void onError(FaceRecFrame frame, Exception ex);
+
+        void onRelease(FaceRecFrame frame);
+    }
+
+    private final Processor<R> processor;
+    private final Listener<R> listener;
+    private final long minFrameInterval;
+    private final ThreadFactory threadFactory;
+    private final Object lock = new Object();
+    private FaceRecFrame pendingFrame;
+    private long lastAcceptedTimestamp = Long.MIN_VALUE;
+    private int droppedFrameCount;
+    private int processedFrameCount;
+    private boolean running;
+    private Thread thread;
+
+    FaceRecFrameLoop(Processor<R> processor, Listener<R> listener, float targetFps, ThreadFactory threadFactory) {
+        this.processor = processor;
+        this.listener = listener;
+        this.threadFactory = threadFactory;
+        minFrameInterval = targetFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / targetFps) : 0;
+    }
+
+    void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            thread = threadFactory.newThread(this);
+        }
+        thread.start();
+    }
+
+    void stop() {
+        Thread loopThread;
+        FaceRecFrame dropped;
+        synchronized (lock) {
+            running = false;
+            loopThread = thread;
+            thread = null;
+            dropped = pendingFrame;
+            pendingFrame = null;
+            lock.notifyAll();
+        }
+        if (dropped != null) {
+            listener.onRelease(dropped);
+        }
+        if (loopThread != null && loopThread != Thread.currentThread()) {
+            try {
+                loopThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Hands a frame to the loop. Frames arriving faster than the target frame
+     * rate are released straight away, and a frame still waiting for the
+     * processor is replaced by the newer one: only the latest frame is kept.
+     */
+    boolean submit(FaceRecFrame frame) {
+        FaceRecFrame dropped;
+        synchronized (lock) {
+            if (!running || (lastAcceptedTimestamp != Long.MIN_VALUE
+                    && frame.timestamp - lastAcceptedTimestamp < minFrameInterval)) {
+                droppedFrameCount++;
+                dropped = frame;
+            } else {
+                lastAcceptedTimestamp = frame.timestamp;
+                dropped = pendingFrame;
+                if (dropped != null) {
+                    droppedFrameCount++;
+                }
+                pendingFrame = frame;
+                lock.notifyAll();
+            }
+        }
+        if (dropped != null) {
+            listener.onRelease(dropped);
+        }
+        return dropped != frame;
+    }
+
+    int getDroppedFrameCount() {
+        synchronized (lock) {
+            return droppedFrameCount;
+        }
+    }
+
+    int getProcessedFrameCount() {
+        synchronized (lock) {
+            return processedFrameCount;
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            FaceRecFrame frame;
+            synchronized (lock) {
+                while (running && pendingFrame == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        running = false;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                frame = pendingFrame;
+                pendingFrame = null;
+            }
+            try {
+                R result = processor.process(frame);
+                synchronized (lock) {
+                    processedFrameCount++;
+                }
+                listener.onResult(frame, result);
+            } catch (Exception ex) {
+                listener.onError(frame, ex);
+            } finally {
+                listener.onRelease(frame);
+            }
+        }
+    }
+}
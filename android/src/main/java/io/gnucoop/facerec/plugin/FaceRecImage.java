@@ -0,0 +1,35 @@
+package io.gnucoop.facerec.plugin;
+
+import android.graphics.Bitmap;
+
+class FaceRecImage {
+    final String path;
+    final Bitmap bitmap;
+    final int rotation;
+    final int rawWidth;
+    final int rawHeight;
+
+    FaceRecImage(String path, Bitmap bitmap, int rotation, int rawWidth, int rawHeight) {
+        this.path = path;
+        this.bitmap = bitmap;
+        this.rotation = rotation;
+        this.rawWidth = rawWidth;
+        this.rawHeight = rawHeight;
+    }
+
+    int getWidth() {
+        return rotation == 90 || rotation == 270 ? rawHeight : rawWidth;
+    }
+
+    int getHeight() {
+        return rotation == 90 || rotation == 270 ? rawWidth : rawHeight;
+    }
+
+    float getScale() {
+        return (float) getWidth() / bitmap.getWidth();
+    }
+
+    boolean isSubsampled() {
+        return bitmap.getWidth() < getWidth();
+    }
+}
@@ -0,0 +1,10 @@
+package io.gnucoop.facerec.plugin;
+
+/**
+ * Decodes an image file for analysis, upright and subsampled to no less
+ * than maxSize on its longest side, or at full resolution when maxSize is
+ * 0. Returns null when the file cannot be decoded.
+ */
+interface FaceRecImageDecoder {
+    FaceRecImage decode(String path, int maxSize, FaceRecStageTimings timings);
+}
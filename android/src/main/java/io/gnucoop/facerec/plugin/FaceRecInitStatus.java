@@ -5,5 +5,6 @@ public enum FaceRecInitStatus {
     LoadingModels,
     DownloadingModels,
     Success,
-    Error
+    Error,
+    Released
 }
@@ -0,0 +1,46 @@
+package io.gnucoop.facerec.plugin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class FaceRecInputBufferPool {
+    private final int maxBatchSize;
+    private final int bytesPerInput;
+    private final ByteBuffer buffer;
+    private final ByteBuffer[] batchBuffers;
+    private final int[] pixels;
+
+    FaceRecInputBufferPool(int inputSize, int pixelSize, int bytesPerChannel, int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        bytesPerInput = bytesPerChannel * inputSize * inputSize * pixelSize;
+        buffer = ByteBuffer.allocateDirect(bytesPerInput * maxBatchSize);
+        buffer.order(ByteOrder.nativeOrder());
+        batchBuffers = new ByteBuffer[maxBatchSize];
+        pixels = new int[inputSize * inputSize];
+    }
+
+    /**
+     * Returns a rewound direct buffer whose capacity fits exactly count inputs,
+     * as required by the interpreter. Buffers are views on a single direct
+     * allocation and are cached per batch length.
+     */
+    ByteBuffer acquire(int count) {
+        if (count < 1 || count > maxBatchSize) {
+            throw new IllegalArgumentException("Invalid batch length: " + count);
+        }
+        ByteBuffer batchBuffer = batchBuffers[count - 1];
+        if (batchBuffer == null) {
+            buffer.clear();
+            buffer.limit(bytesPerInput * count);
+            batchBuffer = buffer.slice();
+            batchBuffer.order(ByteOrder.nativeOrder());
+            batchBuffers[count - 1] = batchBuffer;
+        }
+        batchBuffer.clear();
+        return batchBuffer;
+    }
+
+    int[] getPixels() {
+        return pixels;
+    }
+}
@@ -0,0 +1,76 @@
+package io.gnucoop.facerec.plugin;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Model heads sharing the same input spec, so that each face crop is
+ * preprocessed once for all of them.
+ */
+class FaceRecInputGroup {
+    interface PixelSource {
+        void getPixels(int face, int size, int[] pixels);
+    }
+
+    final FaceRecModelSpec spec;
+    final FaceRecInputBufferPool inputBufferPool;
+    final FaceRecPixelConverter pixelConverter;
+    final List<FaceRecModelHead> heads = new ArrayList<FaceRecModelHead>();
+
+    FaceRecInputGroup(FaceRecModelSpec spec, int maxBatchSize) {
+        this.spec = spec;
+        inputBufferPool = new FaceRecInputBufferPool(spec.inputSize, spec.pixelSize, spec.getBytesPerChannel(), maxBatchSize);
+        pixelConverter = new FaceRecPixelConverter(spec.inputAsRgb, spec.floatNet, spec.imageMean, spec.imageStd);
+    }
+
+    /**
+     * Runs the heads of the group on all faces, batchSize at a time. The
+     * crops of a batch fill consecutive inputs of one buffer, and the output
+     * at index i of a batch belongs to face batchStart + i. Runs are
+     * serialized, as the input buffers are shared by all requests.
+     */
+    synchronized void run(
+            FaceRecFaceResults faceResults, int batchSize, PixelSource pixelSource, FaceRecStageTimings timings) {
+        int faceCount = faceResults.count;
+        int inputSize = spec.inputSize;
+        int[] pixels = inputBufferPool.getPixels();
+        for (int batchStart = 0; batchStart < faceCount; batchStart += batchSize) {
+            int batchCount = Math.min(batchSize, faceCount - batchStart);
+            long stageStart = System.nanoTime();
+            ByteBuffer batchByteBuffer = inputBufferPool.acquire(batchCount);
+            for (int i = batchStart; i < batchStart + batchCount; i++) {
+                pixelSource.getPixels(i, inputSize, pixels);
+                pixelConverter.convert(pixels, inputSize * inputSize, batchByteBuffer);
+            }
+            timings.add(FaceRecStage.Convert, System.nanoTime() - stageStart);
+            for (FaceRecModelHead head : heads) {
+                stageStart = System.nanoTime();
+                float[][] outputs = head.run(batchByteBuffer, batchCount);
+                timings.add(FaceRecStage.Inference, System.nanoTime() - stageStart);
+                for (int i = 0; i < batchCount; i++) {
+                    faceResults.setOutput(head.spec.name, head.spec.labels, batchStart + i, outputs[i]);
+                }
+            }
+        }
+    }
+
+    static List<FaceRecInputGroup> fromHeads(List<FaceRecModelHead> heads, int maxBatchSize) {
+        List<FaceRecInputGroup> groups = new ArrayList<FaceRecInputGroup>();
+        for (FaceRecModelHead head : heads) {
+            FaceRecInputGroup group = null;
+            for (FaceRecInputGroup candidate : groups) {
+                if (candidate.spec.getInputKey().equals(head.spec.getInputKey())) {
+                    group = candidate;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new FaceRecInputGroup(head.spec, maxBatchSize);
+                groups.add(group);
+            }
+            group.heads.add(head);
+        }
+        return groups;
+    }
+}
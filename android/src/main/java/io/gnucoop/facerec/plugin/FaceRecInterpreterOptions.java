@@ -0,0 +1,40 @@
+package io.gnucoop.facerec.plugin;
+
+import com.getcapacitor.PluginCall;
+
+import org.tensorflow.lite.Interpreter;
+
+class FaceRecInterpreterOptions {
+    static final int DEFAULT_WARM_UP_RUNS = 1;
+
+    int numThreads = -1;
+    boolean useNNAPI = false;
+    boolean allowFp16PrecisionForFp32 = false;
+    int warmUpRuns = DEFAULT_WARM_UP_RUNS;
+
+    static FaceRecInterpreterOptions fromCall(PluginCall call) {
+        FaceRecInterpreterOptions options = new FaceRecInterpreterOptions();
+        Integer numThreads = call.getInt("numThreads");
+        if (numThreads != null && numThreads > 0) {
+            options.numThreads = numThreads;
+        }
+        options.useNNAPI = call.getBoolean("useNNAPI", false);
+        options.allowFp16PrecisionForFp32 = call.getBoolean("allowFp16PrecisionForFp32", false);
+        Integer warmUpRuns = call.getInt("warmUpRuns");
+        if (warmUpRuns != null) {
+            options.warmUpRuns = Math.max(0, warmUpRuns);
+        }
+        return options;
+    }
+
+    String getCacheKey() {
+        return numThreads + ":" + useNNAPI + ":" + allowFp16PrecisionForFp32;
+    }
+
+    Interpreter.Options toInterpreterOptions() {
+        return new Interpreter.Options()
+                .setNumThreads(numThreads)
+                .setUseNNAPI(useNNAPI)
+                .setAllowFp16PrecisionForFp32(allowFp16PrecisionForFp32);
+    }
+}
@@ -0,0 +1,76 @@
+package io.gnucoop.facerec.plugin;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Locale;
+
+/**
+ * Aggregates the stage timings of many requests into latency histograms,
+ * together with the bytes allocated by the stages that report them.
+ */
+class FaceRecMetrics {
+    private static final FaceRecStage[] STAGES = FaceRecStage.values();
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final FaceRecHistogram total = new FaceRecHistogram();
+    private final FaceRecHistogram[] stages = new FaceRecHistogram[STAGES.length];
+    private final long[] bytes = new long[STAGES.length];
+
+    FaceRecMetrics() {
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new FaceRecHistogram();
+        }
+    }
+
+    /**
+     * Records the stages run by one request. Stages the request skipped are
+     * left out, so that they do not pull the percentiles down.
+     */
+    synchronized void record(FaceRecStageTimings timings, long totalNanos) {
+        total.record(totalNanos);
+        for (FaceRecStage stage : STAGES) {
+            if (timings.getCount(stage) > 0) {
+                stages[stage.ordinal()].record(timings.get(stage));
+                bytes[stage.ordinal()] += timings.getBytes(stage);
+            }
+        }
+    }
+
+    synchronized void reset() {
+        total.reset();
+        for (int i = 0; i < stages.length; i++) {
+            stages[i].reset();
+            bytes[i] = 0;
+        }
+    }
+
+    synchronized JSObject toJson() {
+        JSObject json = new JSObject();
+        json.put("total", histogramToJson(total));
+        JSObject stagesJson = new JSObject();
+        for (FaceRecStage stage : STAGES) {
+            FaceRecHistogram histogram = stages[stage.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            JSObject stageJson = histogramToJson(histogram);
+            if (bytes[stage.ordinal()] > 0) {
+                stageJson.put("bytes", bytes[stage.ordinal()]);
+            }
+            stagesJson.put(stage.name().toLowerCase(Locale.US), stageJson);
+        }
+        json.put("stages", stagesJson);
+        return json;
+    }
+
+    private static JSObject histogramToJson(FaceRecHistogram histogram) {
+        JSObject json = new JSObject();
+        json.put("count", histogram.getCount());
+        json.put("mean", histogram.getMean() / NANOS_PER_MILLI);
+        json.put("p50", histogram.getPercentile(50) / NANOS_PER_MILLI);
+        json.put("p95", histogram.getPercentile(95) / NANOS_PER_MILLI);
+        json.put("p99", histogram.getPercentile(99) / NANOS_PER_MILLI);
+        json.put("max", histogram.getMax() / NANOS_PER_MILLI);
+        return json;
+    }
+}
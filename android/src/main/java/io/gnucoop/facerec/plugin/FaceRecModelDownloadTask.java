@@ -4,38 +4,59 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Environment;
+import android.util.Log;
 
 import com.getcapacitor.JSObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
-import javax.net.ssl.HttpsURLConnection;
-
 public class FaceRecModelDownloadTask extends AsyncTask<String, JSObject, Boolean> {
-    private static final int BUFFER_SIZE = 4096;
+    private static final String ETAG_PREFIX = "etag-";
+    private static final String LAST_MODIFIED_PREFIX = "last-modified-";
+    private static final String EXPIRES_PREFIX = "expires-";
+    private static final String PARTIAL_VALIDATOR_PREFIX = "partial-validator-";
 
     private FaceRec plugin;
+    private final long progressInterval;
+    private final float progressStep;
 
     public FaceRecModelDownloadTask(FaceRec plugin) {
+        this(plugin, FaceRecProgressThrottle.DEFAULT_INTERVAL_MILLIS, FaceRecProgressThrottle.DEFAULT_STEP);
+    }
+
+    public FaceRecModelDownloadTask(FaceRec plugin, long progressInterval, float progressStep) {
         this.plugin = plugin;
+        this.progressInterval = progressInterval;
+        this.progressStep = progressStep;
     }
 
+    /**
+     * Downloads each (url, dest, filename) triple in turn. A trailing url
+     * without filename is saved under the last segment of its path.
+     */
     @Override
     protected Boolean doInBackground(String... strings) {
-        String modelUrl = strings[0];
-        String dest = strings[1];
-        String filename;
-        if (strings.length < 3) {
-            filename = modelUrl.substring(modelUrl.lastIndexOf("/") + 1, modelUrl.length());
-        } else {
-            filename = strings[2];
+        Boolean downloaded = true;
+        int modelCount = (strings.length + 2) / 3;
+        for (int i = 0; i < modelCount; i++) {
+            String modelUrl = strings[i * 3];
+            String dest = strings[i * 3 + 1];
+            String filename;
+            if (strings.length < i * 3 + 3) {
+                filename = modelUrl.substring(modelUrl.lastIndexOf("/") + 1, modelUrl.length());
+            } else {
+                filename = strings[i * 3 + 2];
+            }
+            downloaded = downloadModel(modelUrl, dest, filename, i, modelCount) && downloaded;
         }
+        plugin.loadDownloadedModel(downloaded);
+        return downloaded;
+    }
 
+    private boolean downloadModel(String modelUrl, String dest, String filename, int modelIndex, int modelCount) {
         URL url;
         try {
             url = new URL(modelUrl);
@@ -43,74 +64,72 @@ public class FaceRecModelDownloadTask extends AsyncTask<String, JSObject, Boolea
             return false;
         }
 
-        String filePath = getFilePath(dest, filename);
+        File file = new File(getFilePath(dest, filename));
+        FaceRecModelDownloader.State state = getState(url);
+        final JSObject dlProgress = new JSObject();
+        dlProgress.put("modelIndex", modelIndex);
+        dlProgress.put("modelCount", modelCount);
+        final FaceRecProgressThrottle throttle = new FaceRecProgressThrottle(progressInterval, progressStep);
+        FaceRecModelDownloader downloader = new FaceRecModelDownloader(state, new FaceRecModelDownloader.Listener() {
+            @Override
+            public void onProgress(long bytesRead, long totalBytes) {
+                if (!throttle.update(bytesRead, totalBytes, System.nanoTime())) {
+                    return;
+                }
+                if (totalBytes > 0) {
+                    dlProgress.put("progress", throttle.getProgress());
+                    dlProgress.put("totalBytes", totalBytes);
+                }
+                dlProgress.put("bytesRead", bytesRead);
+                dlProgress.put("bytesPerSecond", throttle.bytesPerSecond);
+                if (throttle.etaMillis > -1) {
+                    dlProgress.put("eta", throttle.etaMillis);
+                }
+                plugin.notifyInitStatus(FaceRecInitStatus.DownloadingModels, dlProgress);
+            }
+        });
 
         try {
-            HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-            long currentTime = System.currentTimeMillis();
-            long expires = conn.getHeaderFieldDate("Expires", currentTime);
-            long lastModified = conn.getHeaderFieldDate("Last-Modified", currentTime);
-            long lastUpdateTime = getLastUpdate(url);
-            if (lastModified > lastUpdateTime || expires < lastUpdateTime) {
-                int responseCode = conn.getResponseCode();
-                if (responseCode == HttpsURLConnection.HTTP_OK) {
-                    InputStream inputStream = conn.getInputStream();
-                    File file = new File(filePath);
-                    File parent = file.getParentFile();
-                    if (!parent.exists()) {
-                        boolean parentCreated = parent.mkdirs();
-                        if (!parentCreated) {
-                            return false;
-                        }
-                    }
-                    if (!file.exists()) {
-                        boolean fileCreated = file.createNewFile();
-                        if (!fileCreated) {
-                            return false;
-                        }
-                    }
-
-                    JSObject dlProgress = new JSObject();
-                    int fileLen = conn.getContentLength();
-                    int readLen = 0;
-
-                    if (fileLen > -1) {
-                        dlProgress.put("progress", 0f);
-                    }
-
-                    plugin.notifyInitStatus(FaceRecInitStatus.DownloadingModels, dlProgress);
-
-                    FileOutputStream outputStream = new FileOutputStream(file);
-
-                    int bytesRead;
-                    byte[] buffer = new byte[BUFFER_SIZE];
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        readLen += bytesRead;
-                        if (fileLen > 0) {
-                            dlProgress.put("progress", (float)readLen / fileLen);
-                            plugin.notifyInitStatus(FaceRecInitStatus.DownloadingModels, dlProgress);
-                        }
-                    }
-
-                    outputStream.close();
-                    inputStream.close();
-
-                    setLastUpdate(url);
-
-                    return true;
-                }
-                return false;
+            FaceRecModelDownloader.Result result = downloader.download(url, file);
+            if (result == FaceRecModelDownloader.Result.Downloaded) {
+                downloadChecksum(url, file);
             }
             return true;
-        } catch(IOException e) {
+        } catch (IOException e) {
+            Log.e(plugin.getLogTag(), "Unable to download model", e);
             return false;
+        } finally {
+            setState(url, state);
         }
     }
 
-    @Override
-    protected void onPostExecute(Boolean result) {
-        plugin.loadDownloadedModel(result);
+    private void downloadChecksum(URL modelUrl, File file) {
+        File checksumFile = FaceRecModelFile.getChecksumFile(file);
+        if (checksumFile.exists() && !checksumFile.delete()) {
+            return;
+        }
+        FaceRecModelDownloader downloader = new FaceRecModelDownloader(
+                new FaceRecModelDownloader.State(), new FaceRecModelDownloader.Listener() {
+                    @Override
+                    public void onProgress(long bytesRead, long totalBytes) {
+                    }
+                });
+        try {
+            downloader.download(new URL(modelUrl.toString() + FaceRecModelFile.CHECKSUM_SUFFIX), checksumFile);
+        } catch (IOException e) {
+            checksumFile.delete();
+            new File(checksumFile.getPath() + FaceRecModelDownloader.PART_SUFFIX).delete();
+        }
+    }
+
+    static void clearState(Context context, String modelUrl) {
+        SharedPreferences sharedPref = context.getSharedPreferences(FaceRec.CACHE_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        sharedPref.edit()
+                .remove(ETAG_PREFIX + modelUrl)
+                .remove(LAST_MODIFIED_PREFIX + modelUrl)
+                .remove(EXPIRES_PREFIX + modelUrl)
+                .remove(PARTIAL_VALIDATOR_PREFIX + modelUrl)
+                .apply();
     }
 
     private String getFilePath(String dest, String filename) {
@@ -120,15 +139,25 @@ public class FaceRecModelDownloadTask extends AsyncTask<String, JSObject, Boolea
         ).toString();
     }
 
-    private long getLastUpdate(URL url) {
+    private FaceRecModelDownloader.State getState(URL url) {
         Context context = plugin.getContext();
         SharedPreferences sharedPref = context.getSharedPreferences(FaceRec.CACHE_PREFERENCES_NAME, Context.MODE_PRIVATE);
-        return sharedPref.getLong("last-update-" + url.toString(), 0);
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        state.eTag = sharedPref.getString(ETAG_PREFIX + url.toString(), null);
+        state.lastModified = sharedPref.getString(LAST_MODIFIED_PREFIX + url.toString(), null);
+        state.expires = sharedPref.getLong(EXPIRES_PREFIX + url.toString(), 0);
+        state.partialValidator = sharedPref.getString(PARTIAL_VALIDATOR_PREFIX + url.toString(), null);
+        return state;
     }
 
-    private void setLastUpdate(URL url) {
+    private void setState(URL url, FaceRecModelDownloader.State state) {
         Context context = plugin.getContext();
         SharedPreferences sharedPref = context.getSharedPreferences(FaceRec.CACHE_PREFERENCES_NAME, Context.MODE_PRIVATE);
-        sharedPref.edit().putLong("last-update-" + url.toString(), System.currentTimeMillis()).apply();
+        sharedPref.edit()
+                .putString(ETAG_PREFIX + url.toString(), state.eTag)
+                .putString(LAST_MODIFIED_PREFIX + url.toString(), state.lastModified)
+                .putLong(EXPIRES_PREFIX + url.toString(), state.expires)
+                .putString(PARTIAL_VALIDATOR_PREFIX + url.toString(), state.partialValidator)
+                .apply();
     }
 }
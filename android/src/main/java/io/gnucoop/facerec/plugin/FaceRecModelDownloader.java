@@ -0,0 +1,203 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Downloads a file into a ".part" sibling and renames it into place once
+ * complete. Interrupted downloads are resumed with a Range request guarded
+ * by If-Range, and complete files are revalidated with If-None-Match and
+ * If-Modified-Since.
+ */
+class FaceRecModelDownloader {
+    static final String PART_SUFFIX = ".part";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    enum Result {
+        Downloaded,
+        NotModified
+    }
+
+    interface Listener {
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Validators persisted between downloads of the same URL.
+     */
+    static class State {
+        String eTag;
+        String lastModified;
+        long expires;
+        String partialValidator;
+    }
+
+    private final State state;
+    private final Listener listener;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    FaceRecModelDownloader(State state, Listener listener) {
+        this.state = state;
+        this.listener = listener;
+    }
+
+    Result download(URL url, File target) throws IOException {
+        if (target.isFile() && state.expires > System.currentTimeMillis()) {
+            return Result.NotModified;
+        }
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        File partFile = new File(target.getPath() + PART_SUFFIX);
+        try {
+            return download(url, target, partFile, true);
+        } catch (RangeNotSatisfiableException e) {
+            return download(url, target, partFile, false);
+        }
+    }
+
+    private Result download(URL url, File target, File partFile, boolean resume) throws IOException {
+        long offset = resume && state.partialValidator != null ? partFile.length() : 0;
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(READ_TIMEOUT);
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (target.isFile()) {
+                if (state.eTag != null) {
+                    conn.setRequestProperty("If-None-Match", state.eTag);
+                }
+                if (state.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", state.lastModified);
+                }
+            }
+            if (offset > 0) {
+                conn.setRequestProperty("Range", "bytes=" + offset + "-");
+                conn.setRequestProperty("If-Range", state.partialValidator);
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                updateExpires(conn);
+                return Result.NotModified;
+            }
+            if (responseCode == HTTP_RANGE_NOT_SATISFIABLE && offset > 0) {
+                deletePartFile(partFile);
+                throw new RangeNotSatisfiableException();
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                offset = 0;
+            } else if (responseCode != HttpURLConnection.HTTP_PARTIAL || offset == 0
+                    || getRangeStart(conn.getHeaderField("Content-Range")) != offset) {
+                throw new IOException("Unexpected response code " + responseCode);
+            }
+
+            String eTag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (offset == 0) {
+                state.partialValidator = eTag != null ? eTag : lastModified;
+            }
+
+            long contentLength = getContentLength(conn);
+            long totalBytes = contentLength < 0 ? -1 : offset + contentLength;
+            long bytesRead = writePartFile(conn.getInputStream(), partFile, offset, totalBytes);
+            if (totalBytes > -1 && bytesRead != totalBytes) {
+                throw new IOException("Incomplete download " + bytesRead + "/" + totalBytes);
+            }
+
+            if (!partFile.renameTo(target)) {
+                if (!target.delete() || !partFile.renameTo(target)) {
+                    throw new IOException("Unable to move " + partFile + " to " + target);
+                }
+            }
+            state.eTag = eTag;
+            state.lastModified = lastModified;
+            state.partialValidator = null;
+            updateExpires(conn);
+            return Result.Downloaded;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private long writePartFile(InputStream inputStream, File partFile, long offset, long totalBytes) throws IOException {
+        ReadableByteChannel input = Channels.newChannel(inputStream);
+        RandomAccessFile output = new RandomAccessFile(partFile, "rw");
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(offset);
+            channel.position(offset);
+            long bytesRead = offset;
+            listener.onProgress(bytesRead, totalBytes);
+            buffer.clear();
+            while (input.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    bytesRead += channel.write(buffer);
+                }
+                buffer.clear();
+                listener.onProgress(bytesRead, totalBytes);
+            }
+            channel.force(true);
+            return bytesRead;
+        } finally {
+            output.close();
+            input.close();
+        }
+    }
+
+    private void updateExpires(HttpURLConnection conn) {
+        state.expires = conn.getHeaderFieldDate("Expires", 0);
+    }
+
+    private void deletePartFile(File partFile) throws IOException {
+        state.partialValidator = null;
+        if (partFile.exists() && !partFile.delete()) {
+            throw new IOException("Unable to delete " + partFile);
+        }
+    }
+
+    private static long getContentLength(HttpURLConnection conn) {
+        String contentLength = conn.getHeaderField("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static long getRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class RangeNotSatisfiableException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+}
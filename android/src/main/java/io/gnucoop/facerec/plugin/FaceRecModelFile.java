@@ -0,0 +1,90 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+class FaceRecModelFile {
+    static final String CHECKSUM_SUFFIX = ".sha256";
+
+    private static final int MAX_CHECKSUM_FILE_SIZE = 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private FaceRecModelFile() {}
+
+    static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+    }
+
+    static String sha256(ByteBuffer buffer) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.rewind();
+        digest.update(view);
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    static boolean matches(ByteBuffer buffer, String expectedSha256) {
+        return sha256(buffer).equals(normalizeChecksum(expectedSha256));
+    }
+
+    static File getChecksumFile(File modelFile) {
+        return new File(modelFile.getPath() + CHECKSUM_SUFFIX);
+    }
+
+    /**
+     * Reads a sha256sum style sidecar, i.e. the hex digest optionally
+     * followed by the file name. Returns null when there is no sidecar or
+     * it does not start with a sha256 digest, as an HTML error page served
+     * for a missing checksum.
+     */
+    static String readChecksum(File checksumFile) throws IOException {
+        if (!checksumFile.isFile() || checksumFile.length() > MAX_CHECKSUM_FILE_SIZE) {
+            return null;
+        }
+        byte[] content = new byte[(int) checksumFile.length()];
+        FileInputStream input = new FileInputStream(checksumFile);
+        try {
+            int offset = 0;
+            int read;
+            while (offset < content.length && (read = input.read(content, offset, content.length - offset)) != -1) {
+                offset += read;
+            }
+        } finally {
+            input.close();
+        }
+        String checksum = new String(content, Charset.forName("US-ASCII")).trim().split("\\s+", 2)[0];
+        return SHA256_PATTERN.matcher(checksum).matches() ? normalizeChecksum(checksum) : null;
+    }
+
+    static String normalizeChecksum(String checksum) {
+        return checksum.trim().toLowerCase(Locale.US);
+    }
+}
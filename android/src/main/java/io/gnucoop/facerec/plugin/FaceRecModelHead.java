@@ -0,0 +1,98 @@
+package io.gnucoop.facerec.plugin;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A loaded model fed with face crops. The size of one output is read from
+ * the first output tensor when the model is loaded, and output buffers are
+ * allocated once per batch length.
+ */
+class FaceRecModelHead implements AutoCloseable {
+    final FaceRecModelSpec spec;
+    final int outputSize;
+
+    private final Interpreter interpreter;
+    private final boolean quantizedOutput;
+    private ByteBuffer[] outputBuffers = new ByteBuffer[0];
+    private int batchSize;
+
+    FaceRecModelHead(FaceRecModelSpec spec, Interpreter interpreter) {
+        this.spec = spec;
+        this.interpreter = interpreter;
+        Tensor output = interpreter.getOutputTensor(0);
+        DataType dataType = output.dataType();
+        if (dataType != DataType.FLOAT32 && dataType != DataType.UINT8) {
+            throw new IllegalArgumentException("Unsupported output type " + dataType + " for model " + spec.name);
+        }
+        quantizedOutput = dataType == DataType.UINT8;
+        int[] shape = output.shape();
+        int batch = shape.length > 0 ? Math.max(1, shape[0]) : 1;
+        outputSize = output.numElements() / batch;
+        batchSize = shape.length > 0 ? shape[0] : 0;
+    }
+
+    /**
+     * Creates a head without an interpreter, for subclasses that override
+     * run.
+     */
+    FaceRecModelHead(FaceRecModelSpec spec, int outputSize) {
+        this.spec = spec;
+        this.outputSize = outputSize;
+        interpreter = null;
+        quantizedOutput = false;
+    }
+
+    float[][] run(ByteBuffer input, int count) {
+        if (batchSize != count) {
+            interpreter.resizeInput(0, new int[]{ count, spec.inputSize, spec.inputSize, spec.pixelSize });
+            batchSize = count;
+        }
+        ByteBuffer output = getOutputBuffer(count);
+        input.rewind();
+        interpreter.run(input, output);
+        return decodeOutputs(output, quantizedOutput, count, outputSize);
+    }
+
+    private ByteBuffer getOutputBuffer(int count) {
+        if (outputBuffers.length < count) {
+            outputBuffers = Arrays.copyOf(outputBuffers, count);
+        }
+        ByteBuffer output = outputBuffers[count - 1];
+        if (output == null) {
+            output = ByteBuffer.allocateDirect(count * outputSize * (quantizedOutput ? 1 : 4));
+            output.order(ByteOrder.nativeOrder());
+            outputBuffers[count - 1] = output;
+        }
+        output.clear();
+        return output;
+    }
+
+    static float[][] decodeOutputs(ByteBuffer output, boolean quantized, int count, int outputSize) {
+        float[][] results = new float[count][outputSize];
+        output.rewind();
+        for (int i = 0; i < count; i++) {
+            if (quantized) {
+                for (int j = 0; j < outputSize; j++) {
+                    results[i][j] = (output.get() & 0xFF) / 255f;
+                }
+            } else {
+                output.asFloatBuffer().get(results[i]);
+                output.position(output.position() + outputSize * 4);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        if (interpreter != null) {
+            interpreter.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one loaded instance per slot (e.g. the detector or a model head)
+ * together with the key it was loaded for. Asking for the same key returns
+ * the cached instance; a different key loads a new one and closes the
+ * instance it replaces.
+ */
+class FaceRecModelRegistry {
+    interface Loader<T extends AutoCloseable> {
+        T load() throws Exception;
+    }
+
+    private static class Entry {
+        final String key;
+        final AutoCloseable instance;
+
+        Entry(String key, AutoCloseable instance) {
+            this.key = key;
+            this.instance = instance;
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    synchronized <T extends AutoCloseable> T get(String slot, String key, Class<T> type) {
+        Entry entry = entries.get(slot);
+        if (entry == null || !entry.key.equals(key)) {
+            return null;
+        }
+        return type.cast(entry.instance);
+    }
+
+    synchronized <T extends AutoCloseable> T acquire(String slot, String key, Class<T> type, Loader<T> loader)
+            throws Exception {
+        T cached = get(slot, key, type);
+        if (cached != null) {
+            return cached;
+        }
+        T instance = loader.load();
+        Entry previous = entries.put(slot, new Entry(key, instance));
+        if (previous != null) {
+            closeQuietly(previous.instance);
+        }
+        return instance;
+    }
+
+    synchronized boolean contains(String slot, String key) {
+        Entry entry = entries.get(slot);
+        return entry != null && entry.key.equals(key);
+    }
+
+    synchronized void release(String slot) {
+        Entry entry = entries.remove(slot);
+        if (entry != null) {
+            closeQuietly(entry.instance);
+        }
+    }
+
+    synchronized int releaseExcept(Collection<String> slots) {
+        int released = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!slots.contains(entry.getKey())) {
+                iterator.remove();
+                closeQuietly(entry.getValue().instance);
+                released++;
+            }
+        }
+        return released;
+    }
+
+    synchronized int releaseAll() {
+        List<Entry> released = new ArrayList<Entry>(entries.values());
+        entries.clear();
+        for (Entry entry : released) {
+            closeQuietly(entry.instance);
+        }
+        return released.size();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static void closeQuietly(AutoCloseable instance) {
+        try {
+            instance.close();
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+class FaceRecModelSpec {
+    static final String DEFAULT_NAME = "gender";
+    static final String DEFAULT_FILE_NAME = "model.tflite";
+    static final String[] DEFAULT_LABELS = new String[]{ "male", "female" };
+
+    String name = DEFAULT_NAME;
+    String url;
+    String sha256;
+    String fileName = DEFAULT_FILE_NAME;
+    int inputSize = 64;
+    int pixelSize = 3;
+    boolean inputAsRgb = true;
+    boolean floatNet = true;
+    float[] imageMean = new float[]{ 127.5f, 127.5f, 127.5f };
+    float[] imageStd = new float[]{ 127.5f, 127.5f, 127.5f };
+    String[] labels;
+
+    int getBytesPerChannel() {
+        return floatNet ? 4 : 1;
+    }
+
+    /**
+     * Models sharing this key can be fed the same preprocessed input buffer.
+     */
+    String getInputKey() {
+        return inputSize + ":" + pixelSize + ":" + inputAsRgb + ":" + floatNet
+                + ":" + Arrays.toString(imageMean) + ":" + Arrays.toString(imageStd);
+    }
+
+    String getCacheKey() {
+        return url + "#" + (sha256 != null ? sha256 : "") + "#" + getInputKey() + "#" + Arrays.toString(labels);
+    }
+
+    FaceRecModelSpec copyInputSpec() {
+        FaceRecModelSpec spec = new FaceRecModelSpec();
+        spec.inputSize = inputSize;
+        spec.pixelSize = pixelSize;
+        spec.inputAsRgb = inputAsRgb;
+        spec.floatNet = floatNet;
+        spec.imageMean = imageMean.clone();
+        spec.imageStd = imageStd.clone();
+        return spec;
+    }
+
+    /**
+     * Reads a model spec, falling back to the values of defaults for the
+     * options that are not set. The url key is read as modelUrl at the top
+     * level of the init options and as url in a models entry.
+     */
+    static FaceRecModelSpec fromJson(JSONObject json, FaceRecModelSpec defaults, String urlKey, String sha256Key) {
+        FaceRecModelSpec spec = new FaceRecModelSpec();
+        spec.name = getString(json, "name", defaults.name);
+        spec.url = getString(json, urlKey, defaults.url);
+        String sha256 = getString(json, sha256Key, defaults.sha256);
+        spec.sha256 = sha256 != null ? FaceRecModelFile.normalizeChecksum(sha256) : null;
+        spec.fileName = defaults.fileName;
+        spec.inputSize = Math.max(1, json.optInt("inputSize", defaults.inputSize));
+        spec.pixelSize = Math.max(1, json.optInt("pixelSize", defaults.pixelSize));
+        spec.inputAsRgb = json.optBoolean("inputAsRgb", defaults.inputAsRgb);
+        spec.floatNet = json.optBoolean("floatNet", defaults.floatNet);
+        spec.imageMean = getChannelValues(json, "imageMean", defaults.imageMean);
+        spec.imageStd = getChannelValues(json, "imageStd", defaults.imageStd);
+        spec.labels = defaults.labels;
+        JSONArray labels = json.optJSONArray("labels");
+        if (labels != null) {
+            spec.labels = new String[labels.length()];
+            for (int i = 0; i < labels.length(); i++) {
+                spec.labels[i] = labels.optString(i, String.valueOf(i));
+            }
+        }
+        return spec;
+    }
+
+    private static String getString(JSONObject json, String key, String defaultValue) {
+        return json.has(key) && !json.isNull(key) ? json.optString(key) : defaultValue;
+    }
+
+    private static float[] getChannelValues(JSONObject json, String name, float[] defaultValues) {
+        Object value = json.opt(name);
+        float[] values = defaultValues.clone();
+        if (value instanceof Number) {
+            Arrays.fill(values, ((Number) value).floatValue());
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < values.length && i < array.length(); i++) {
+                values[i] = (float) array.optDouble(i, values[i]);
+            }
+        }
+        return values;
+    }
+}
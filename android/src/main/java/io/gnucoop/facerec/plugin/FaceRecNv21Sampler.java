@@ -0,0 +1,61 @@
+package io.gnucoop.facerec.plugin;
+
+final class FaceRecNv21Sampler {
+    private FaceRecNv21Sampler() { }
+
+    /**
+     * Samples the crop rect of an NV21 frame into outputSize x outputSize ARGB
+     * pixels. The rect is expressed in upright coordinates, i.e. after the
+     * frame has been rotated clockwise by its rotation. Only the sampled pixels
+     * are converted from YUV.
+     */
+    static void sample(FaceRecFrame frame, int[] cropRect, int outputSize, int[] out) {
+        int width = frame.width;
+        int height = frame.height;
+        byte[] data = frame.data;
+        int frameSize = width * height;
+        float stepX = (float) (cropRect[FaceRecCropMath.RIGHT] - cropRect[FaceRecCropMath.LEFT]) / outputSize;
+        float stepY = (float) (cropRect[FaceRecCropMath.BOTTOM] - cropRect[FaceRecCropMath.TOP]) / outputSize;
+        int pixel = 0;
+        for (int oy = 0; oy < outputSize; oy++) {
+            int v = (int) (cropRect[FaceRecCropMath.TOP] + (oy + 0.5f) * stepY);
+            for (int ox = 0; ox < outputSize; ox++) {
+                int u = (int) (cropRect[FaceRecCropMath.LEFT] + (ox + 0.5f) * stepX);
+                int x;
+                int y;
+                switch (frame.rotation) {
+                    case 90:
+                        x = v;
+                        y = height - 1 - u;
+                        break;
+                    case 180:
+                        x = width - 1 - u;
+                        y = height - 1 - v;
+                        break;
+                    case 270:
+                        x = width - 1 - v;
+                        y = u;
+                        break;
+                    default:
+                        x = u;
+                        y = v;
+                        break;
+                }
+                x = Math.max(0, Math.min(width - 1, x));
+                y = Math.max(0, Math.min(height - 1, y));
+                int uvIndex = frameSize + (y >> 1) * width + (x & ~1);
+                out[pixel++] = yuvToArgb(data[y * width + x] & 0xFF, (data[uvIndex + 1] & 0xFF) - 128, (data[uvIndex] & 0xFF) - 128);
+            }
+        }
+    }
+
+    static int yuvToArgb(int y, int u, int v) {
+        int r = y + ((91881 * v) >> 16);
+        int g = y - ((22554 * u + 46802 * v) >> 16);
+        int b = y + ((116130 * u) >> 16);
+        r = r < 0 ? 0 : (r > 255 ? 255 : r);
+        g = g < 0 ? 0 : (g > 255 ? 255 : g);
+        b = b < 0 ? 0 : (b > 255 ? 255 : b);
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
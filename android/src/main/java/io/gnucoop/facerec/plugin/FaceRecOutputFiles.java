@@ -0,0 +1,99 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Output files returned by uri, such as encoded images and packed faces.
+ * Before a file is created, files older than the age limit are deleted and
+ * then the oldest ones until the directory is within its size limit. A limit
+ * of 0 disables that check.
+ */
+class FaceRecOutputFiles {
+    private static final String PREFIX = "FACEREC_";
+
+    private final File dir;
+    private long maxBytes;
+    private long maxAgeMillis;
+
+    FaceRecOutputFiles(File dir, long maxBytes, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    synchronized void configure(long maxBytes, long maxAgeMillis) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+    }
+
+    synchronized File create(String suffix) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        trim(System.currentTimeMillis());
+        return File.createTempFile(PREFIX, suffix, dir);
+    }
+
+    synchronized int clear() {
+        int deleted = 0;
+        for (File file : listFiles()) {
+            if (file.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    synchronized long getBytes() {
+        long bytes = 0;
+        for (File file : listFiles()) {
+            bytes += file.length();
+        }
+        return bytes;
+    }
+
+    synchronized void trim(long now) {
+        File[] files = listFiles();
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long bytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+            bytes += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (Integer i : order) {
+            boolean expired = maxAgeMillis > 0 && now - lastModified[i] > maxAgeMillis;
+            if (!expired && (maxBytes <= 0 || bytes <= maxBytes)) {
+                break;
+            }
+            long length = files[i].length();
+            if (files[i].delete()) {
+                bytes -= length;
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.isFile() && file.getName().startsWith(PREFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+}
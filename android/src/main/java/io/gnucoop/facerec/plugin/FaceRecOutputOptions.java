@@ -0,0 +1,43 @@
+package io.gnucoop.facerec.plugin;
+
+import com.getcapacitor.PluginCall;
+
+class FaceRecOutputOptions {
+    static final int DEFAULT_QUALITY = 90;
+
+    FaceRecResultType resultType = FaceRecResultType.Base64;
+    int quality = DEFAULT_QUALITY;
+    int maxSize = 0;
+    int taggedImageMaxSize = 0;
+    boolean includeOriginalImage = true;
+    boolean includeTaggedImage = true;
+    boolean includeBoxes = false;
+    boolean packFaces = false;
+    boolean includeTimings = false;
+
+    static FaceRecOutputOptions fromCall(PluginCall call) {
+        FaceRecOutputOptions options = new FaceRecOutputOptions();
+        Integer resultType = call.getInt("resultType");
+        if (resultType != null && FaceRecResultType.fromInt(resultType) != null) {
+            options.resultType = FaceRecResultType.fromInt(resultType);
+        }
+        Integer quality = call.getInt("quality");
+        if (quality != null) {
+            options.quality = Math.max(0, Math.min(100, quality));
+        }
+        Integer maxSize = call.getInt("maxOutputSize");
+        if (maxSize != null) {
+            options.maxSize = Math.max(0, maxSize);
+        }
+        Integer taggedImageMaxSize = call.getInt("taggedImageMaxSize");
+        if (taggedImageMaxSize != null) {
+            options.taggedImageMaxSize = Math.max(0, taggedImageMaxSize);
+        }
+        options.includeOriginalImage = call.getBoolean("includeOriginalImage", true);
+        options.includeTaggedImage = call.getBoolean("includeTaggedImage", true);
+        options.includeBoxes = call.getBoolean("includeBoxes", false);
+        options.packFaces = call.getBoolean("packFaces", false);
+        options.includeTimings = call.getBoolean("includeTimings", false);
+        return options;
+    }
+}
@@ -0,0 +1,230 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packs face results into a single little endian float32 array with one
+ * row of stride values per face, described by a list of fields: numbers
+ * take one value, label maps one value per label and numeric arrays their
+ * longest length. Missing values are NaN and non numeric values, such as
+ * embedding matches, are left out.
+ */
+final class FaceRecPackedFaces {
+    static final String TYPE_NUMBER = "number";
+    static final String TYPE_LABELS = "labels";
+    static final String TYPE_ARRAY = "array";
+
+    private static final String[] BOUNDS = new String[]{ "x", "y", "width", "height" };
+
+    private static final class Field {
+        final String name;
+        final String type;
+        final List<String> labels = new ArrayList<String>();
+        int offset;
+        int size;
+
+        Field(String name, String type) {
+            this.name = name;
+            this.type = type;
+            size = type.equals(TYPE_NUMBER) ? 1 : 0;
+        }
+    }
+
+    private final int count;
+    private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+    private int stride;
+    private float[] values;
+
+    private FaceRecPackedFaces(int count) {
+        this.count = count;
+        for (String name : BOUNDS) {
+            fields.put(name, new Field(name, TYPE_NUMBER));
+        }
+    }
+
+    /**
+     * Packs faces from their JSON form, as returned for cached results.
+     */
+    static FaceRecPackedFaces fromJson(JSONArray faces) {
+        if (faces == null) {
+            faces = new JSONArray();
+        }
+        FaceRecPackedFaces packed = new FaceRecPackedFaces(faces.length());
+        for (int i = 0; i < faces.length(); i++) {
+            JSONObject face = faces.optJSONObject(i);
+            if (face != null) {
+                packed.addFields(face);
+            }
+        }
+        packed.layout();
+        for (int i = 0; i < faces.length(); i++) {
+            JSONObject face = faces.optJSONObject(i);
+            for (Field field : packed.fields.values()) {
+                Object value = face != null ? face.opt(field.name) : null;
+                for (int j = 0; j < field.size; j++) {
+                    packed.values[i * packed.stride + field.offset + j] = getValue(field, value, j);
+                }
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Packs faces straight from their bounds and model outputs, without
+     * building their JSON first.
+     */
+    static FaceRecPackedFaces fromResults(FaceRecFaceResults results) {
+        FaceRecPackedFaces packed = new FaceRecPackedFaces(results.count);
+        boolean tracking = false;
+        for (int trackingId : results.trackingIds) {
+            tracking |= trackingId != FaceRecFaceResults.NO_TRACKING_ID;
+        }
+        if (tracking) {
+            packed.fields.put("trackingId", new Field("trackingId", TYPE_NUMBER));
+        }
+        for (FaceRecFaceResults.Output output : results.outputs) {
+            int size = 0;
+            for (float[] values : output.values) {
+                size = Math.max(size, values != null ? values.length : 0);
+            }
+            Field field;
+            if (output.labels != null && output.labels.length == size) {
+                field = new Field(output.name, TYPE_LABELS);
+                field.labels.addAll(Arrays.asList(output.labels));
+            } else {
+                field = new Field(output.name, TYPE_ARRAY);
+            }
+            field.size = size;
+            packed.fields.put(output.name, field);
+        }
+        packed.layout();
+        Arrays.fill(packed.values, Float.NaN);
+        for (int i = 0; i < results.count; i++) {
+            int row = i * packed.stride;
+            for (int j = 0; j < BOUNDS.length; j++) {
+                packed.values[row + j] = results.bounds[i][j];
+            }
+            if (tracking && results.trackingIds[i] != FaceRecFaceResults.NO_TRACKING_ID) {
+                packed.values[row + packed.fields.get("trackingId").offset] = results.trackingIds[i];
+            }
+            for (FaceRecFaceResults.Output output : results.outputs) {
+                float[] values = output.values[i];
+                if (values != null) {
+                    System.arraycopy(values, 0, packed.values, row + packed.fields.get(output.name).offset,
+                            values.length);
+                }
+            }
+        }
+        return packed;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getStride() {
+        return stride;
+    }
+
+    JSONArray getFieldsJson() {
+        JSONArray res = new JSONArray();
+        try {
+            for (Field field : fields.values()) {
+                JSONObject resField = new JSONObject();
+                resField.put("name", field.name);
+                resField.put("type", field.type);
+                resField.put("offset", field.offset);
+                resField.put("size", field.size);
+                if (field.type.equals(TYPE_LABELS)) {
+                    resField.put("labels", new JSONArray(field.labels));
+                }
+                res.put(resField);
+            }
+        } catch (JSONException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return res;
+    }
+
+    byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private void layout() {
+        for (Field field : fields.values()) {
+            field.offset = stride;
+            stride += field.size;
+        }
+        values = new float[count * stride];
+    }
+
+    private void addFields(JSONObject face) {
+        Iterator<String> keys = face.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = face.opt(key);
+            String type = getType(value);
+            if (type == null) {
+                continue;
+            }
+            Field field = fields.get(key);
+            if (field == null) {
+                field = new Field(key, type);
+                fields.put(key, field);
+            } else if (!field.type.equals(type)) {
+                continue;
+            }
+            if (type.equals(TYPE_LABELS)) {
+                Iterator<String> labels = ((JSONObject) value).keys();
+                while (labels.hasNext()) {
+                    String label = labels.next();
+                    if (((JSONObject) value).opt(label) instanceof Number && !field.labels.contains(label)) {
+                        field.labels.add(label);
+                        field.size++;
+                    }
+                }
+            } else if (type.equals(TYPE_ARRAY)) {
+                field.size = Math.max(field.size, ((JSONArray) value).length());
+            }
+        }
+    }
+
+    private static String getType(Object value) {
+        if (value instanceof Number) {
+            return TYPE_NUMBER;
+        }
+        if (value instanceof JSONObject) {
+            return TYPE_LABELS;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            return array.length() == 0 || array.opt(0) instanceof Number ? TYPE_ARRAY : null;
+        }
+        return null;
+    }
+
+    private static float getValue(Field field, Object value, int index) {
+        Object number = null;
+        if (field.type.equals(TYPE_NUMBER)) {
+            number = value;
+        } else if (field.type.equals(TYPE_LABELS) && value instanceof JSONObject) {
+            number = ((JSONObject) value).opt(field.labels.get(index));
+        } else if (field.type.equals(TYPE_ARRAY) && value instanceof JSONArray) {
+            number = ((JSONArray) value).opt(index);
+        }
+        return number instanceof Number ? ((Number) number).floatValue() : Float.NaN;
+    }
+}
@@ -0,0 +1,70 @@
+package io.gnucoop.facerec.plugin;
+
+import java.nio.ByteBuffer;
+
+class FaceRecPixelConverter {
+    private static final int CHANNELS = 3;
+    private static final int LEVELS = 256;
+
+    private final boolean inputAsRgb;
+    private final boolean floatNet;
+    private final float[][] lookupTables;
+    private float[] floatValues = new float[0];
+    private byte[] byteValues = new byte[0];
+
+    FaceRecPixelConverter(boolean inputAsRgb, boolean floatNet, float[] imageMean, float[] imageStd) {
+        this.inputAsRgb = inputAsRgb;
+        this.floatNet = floatNet;
+        lookupTables = new float[CHANNELS][LEVELS];
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            float mean = imageMean[channel];
+            float std = imageStd[channel] != 0 ? imageStd[channel] : 1f;
+            float[] table = lookupTables[channel];
+            for (int level = 0; level < LEVELS; level++) {
+                table[level] = (level - mean) / std;
+            }
+        }
+    }
+
+    /**
+     * Writes count ARGB pixels to the buffer at its current position, as
+     * normalized floats or raw uint8 values depending on the model type.
+     */
+    void convert(int[] pixels, int count, ByteBuffer out) {
+        int valueCount = count * CHANNELS;
+        int firstShift = inputAsRgb ? 16 : 0;
+        int thirdShift = inputAsRgb ? 0 : 16;
+        if (floatNet) {
+            if (floatValues.length < valueCount) {
+                floatValues = new float[valueCount];
+            }
+            float[] values = floatValues;
+            float[] firstTable = lookupTables[0];
+            float[] secondTable = lookupTables[1];
+            float[] thirdTable = lookupTables[2];
+            int v = 0;
+            for (int i = 0; i < count; i++) {
+                final int val = pixels[i];
+                values[v++] = firstTable[(val >> firstShift) & 0xFF]; // red / blue
+                values[v++] = secondTable[(val >> 8) & 0xFF]; // green
+                values[v++] = thirdTable[(val >> thirdShift) & 0xFF]; // blue / red
+            }
+            int position = out.position();
+            out.asFloatBuffer().put(values, 0, valueCount);
+            out.position(position + valueCount * 4);
+        } else {
+            if (byteValues.length < valueCount) {
+                byteValues = new byte[valueCount];
+            }
+            byte[] values = byteValues;
+            int v = 0;
+            for (int i = 0; i < count; i++) {
+                final int val = pixels[i];
+                values[v++] = (byte)((val >> firstShift) & 0xFF);
+                values[v++] = (byte)((val >> 8) & 0xFF);
+                values[v++] = (byte)((val >> thirdShift) & 0xFF);
+            }
+            out.put(values, 0, valueCount);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which progress updates are worth reporting: the first and last
+ * ones, and otherwise at most one per interval and only after the progress
+ * moved by at least the given step. Transfer rate and ETA are kept in
+ * primitive fields so that checking an update allocates nothing.
+ */
+class FaceRecProgressThrottle {
+    static final long DEFAULT_INTERVAL_MILLIS = 250;
+    static final float DEFAULT_STEP = 0.01f;
+
+    private final long minIntervalNanos;
+    private final float minStep;
+
+    private long startTime = -1;
+    private long startBytes;
+    private long lastReportTime;
+    private float lastReportProgress;
+
+    long bytesRead;
+    long totalBytes = -1;
+    long bytesPerSecond;
+    long etaMillis = -1;
+
+    FaceRecProgressThrottle(long minIntervalMillis, float minStep) {
+        this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minIntervalMillis));
+        this.minStep = Math.max(0, minStep);
+    }
+
+    boolean update(long bytesRead, long totalBytes, long now) {
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        if (startTime < 0) {
+            startTime = now;
+            startBytes = bytesRead;
+            return report(now);
+        }
+
+        long elapsed = now - startTime;
+        if (elapsed > 0) {
+            bytesPerSecond = (bytesRead - startBytes) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        }
+        if (totalBytes > 0 && bytesPerSecond > 0) {
+            etaMillis = Math.max(0, totalBytes - bytesRead) * 1000 / bytesPerSecond;
+        } else {
+            etaMillis = -1;
+        }
+
+        if (totalBytes > 0 && bytesRead >= totalBytes) {
+            return report(now);
+        }
+        if (now - lastReportTime < minIntervalNanos) {
+            return false;
+        }
+        if (totalBytes > 0 && getProgress() - lastReportProgress < minStep) {
+            return false;
+        }
+        return report(now);
+    }
+
+    float getProgress() {
+        return totalBytes > 0 ? (float) bytesRead / totalBytes : 0f;
+    }
+
+    private boolean report(long now) {
+        lastReportTime = now;
+        lastReportProgress = getProgress();
+        return true;
+    }
+}
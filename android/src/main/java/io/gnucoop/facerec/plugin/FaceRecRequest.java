@@ -0,0 +1,33 @@
+package io.gnucoop.facerec.plugin;
+
+import android.net.Uri;
+
+import com.getcapacitor.PluginCall;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+
+class FaceRecRequest {
+    final String id;
+    final PluginCall call;
+    String imageFilePath;
+    Uri imageFileUri;
+    FaceRecOutputOptions outputOptions;
+    Future<?> future;
+    final List<Future<?>> batchWorkers = new CopyOnWriteArrayList<Future<?>>();
+
+    FaceRecRequest(String id, PluginCall call) {
+        this.id = id;
+        this.call = call;
+    }
+
+    void cancel() {
+        if (future != null) {
+            future.cancel(true);
+        }
+        for (Future<?> batchWorker : batchWorkers) {
+            batchWorker.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.gnucoop.facerec.plugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+class FaceRecRequestRegistry {
+    private final ConcurrentHashMap<String, FaceRecRequest> requests = new ConcurrentHashMap<String, FaceRecRequest>();
+
+    void register(FaceRecRequest request) {
+        requests.put(request.id, request);
+    }
+
+    FaceRecRequest get(String id) {
+        return id != null ? requests.get(id) : null;
+    }
+
+    /**
+     * Removes the request, returning it only to the first caller. Whoever gets
+     * the request back owns its completion.
+     */
+    FaceRecRequest remove(String id) {
+        return id != null ? requests.remove(id) : null;
+    }
+
+    boolean remove(FaceRecRequest request) {
+        return requests.remove(request.id, request);
+    }
+
+    List<FaceRecRequest> removeAll() {
+        List<FaceRecRequest> removed = new ArrayList<FaceRecRequest>();
+        for (FaceRecRequest request : requests.values()) {
+            if (remove(request)) {
+                removed.add(request);
+            }
+        }
+        return removed;
+    }
+
+    int size() {
+        return requests.size();
+    }
+}
@@ -0,0 +1,318 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of serialized analysis results keyed by image content
+ * hash. Entries live in memory and, when a directory and a disk size limit
+ * are given, are mirrored to one file per entry. All entries belong to a
+ * version describing the loaded models and are dropped when it changes.
+ */
+class FaceRecResultCache {
+    static final String VERSION_FILE_NAME = "version";
+
+    private static final String ENTRY_SUFFIX = ".json";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int HASH_EDGE_SIZE = 64 * 1024;
+    private static final int HASH_SAMPLE_SIZE = 4 * 1024;
+    private static final int HASH_SAMPLE_COUNT = 16;
+
+    private final File dir;
+    private final LinkedHashMap<String, String> memory = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private int maxEntries;
+    private long maxDiskBytes;
+    private long diskBytes = -1;
+    private String version;
+    private long hits;
+    private long misses;
+
+    FaceRecResultCache(File dir, int maxEntries, long maxDiskBytes) {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Returns the content key of an image file without reading all of it: a
+     * SHA-256 over the file size, its first and last 64 KB and 16 evenly
+     * spaced 4 KB samples in between. The head carries the EXIF data and the
+     * samples cover the compressed pixels, so different photos of the same
+     * size still get different keys. Files smaller than the sampled ranges
+     * are hashed whole.
+     */
+    static String hashFile(File file) throws IOException {
+        ByteBuffer content = FaceRecModelFile.map(file);
+        int length = content.capacity();
+        int sampledLength = 2 * HASH_EDGE_SIZE + HASH_SAMPLE_COUNT * HASH_SAMPLE_SIZE;
+        ByteBuffer sampled = ByteBuffer.allocate(Math.min(length, sampledLength) + 8);
+        sampled.putLong(length);
+        if (length <= sampledLength) {
+            putRange(sampled, content, 0, length);
+        } else {
+            putRange(sampled, content, 0, HASH_EDGE_SIZE);
+            long step = (length - 2L * HASH_EDGE_SIZE - HASH_SAMPLE_SIZE) / (HASH_SAMPLE_COUNT - 1);
+            for (int i = 0; i < HASH_SAMPLE_COUNT; i++) {
+                putRange(sampled, content, (int) (HASH_EDGE_SIZE + i * step), HASH_SAMPLE_SIZE);
+            }
+            putRange(sampled, content, length - HASH_EDGE_SIZE, HASH_EDGE_SIZE);
+        }
+        sampled.flip();
+        return FaceRecModelFile.sha256(sampled);
+    }
+
+    private static void putRange(ByteBuffer out, ByteBuffer content, int offset, int length) {
+        ByteBuffer range = content.duplicate();
+        range.position(offset);
+        range.limit(offset + length);
+        out.put(range);
+    }
+
+    synchronized boolean isEnabled() {
+        return version != null && (maxEntries > 0 || isDiskEnabled());
+    }
+
+    synchronized void configure(int maxEntries, long maxDiskBytes) {
+        this.maxEntries = Math.max(0, maxEntries);
+        this.maxDiskBytes = Math.max(0, maxDiskBytes);
+        trimMemory();
+        if (dir != null && dir.isDirectory()) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * Sets the version of the cached results, dropping every entry stored
+     * for a different version.
+     */
+    synchronized void setVersion(String version) {
+        if (!version.equals(this.version)) {
+            this.version = version;
+            memory.clear();
+        }
+        if (isDiskEnabled() && !version.equals(readVersion())) {
+            clearDisk();
+            writeVersion(version);
+        }
+    }
+
+    synchronized String get(String key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String value = memory.get(key);
+        if (value == null && isDiskEnabled()) {
+            value = readEntry(key);
+            if (value != null && maxEntries > 0) {
+                memory.put(key, value);
+                trimMemory();
+            }
+        }
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    synchronized void put(String key, String value) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (maxEntries > 0) {
+            memory.put(key, value);
+            trimMemory();
+        }
+        if (isDiskEnabled()) {
+            writeEntry(key, value);
+        }
+    }
+
+    synchronized void clear() {
+        memory.clear();
+        if (dir != null && dir.isDirectory()) {
+            clearDisk();
+        }
+        hits = 0;
+        misses = 0;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int getMemoryEntries() {
+        return memory.size();
+    }
+
+    synchronized long getDiskBytes() {
+        return isDiskEnabled() ? getDiskSize() : 0;
+    }
+
+    private boolean isDiskEnabled() {
+        return dir != null && maxDiskBytes > 0;
+    }
+
+    private void trimMemory() {
+        Iterator<Map.Entry<String, String>> it = memory.entrySet().iterator();
+        while (memory.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(dir, key + ENTRY_SUFFIX);
+    }
+
+    private File[] listEntries() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+                files[count++] = file;
+            }
+        }
+        return Arrays.copyOf(files, count);
+    }
+
+    private long getDiskSize() {
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            for (File file : listEntries()) {
+                diskBytes += file.length();
+            }
+        }
+        return diskBytes;
+    }
+
+    private void trimDisk() {
+        if (getDiskSize() <= maxDiskBytes) {
+            return;
+        }
+        File[] entries = listEntries();
+        final long[] lastModified = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            lastModified[i] = entries[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (int i = 0; i < order.length && diskBytes > maxDiskBytes; i++) {
+            File entry = entries[order[i]];
+            long length = entry.length();
+            if (entry.delete()) {
+                diskBytes -= length;
+            }
+        }
+    }
+
+    private void clearDisk() {
+        for (File file : listEntries()) {
+            file.delete();
+        }
+        diskBytes = 0;
+    }
+
+    private String readEntry(String key) {
+        File file = getEntryFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            String value = readFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            return value;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void writeEntry(String key, String value) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File file = getEntryFile(key);
+        long size = getDiskSize() - file.length();
+        try {
+            writeFile(file, value);
+        } catch (IOException ex) {
+            file.delete();
+            diskBytes = -1;
+            return;
+        }
+        diskBytes = size + file.length();
+        trimDisk();
+    }
+
+    private String readVersion() {
+        try {
+            File file = new File(dir, VERSION_FILE_NAME);
+            return file.isFile() ? readFile(file) : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private void writeVersion(String version) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        try {
+            writeFile(new File(dir, VERSION_FILE_NAME), version);
+        } catch (IOException ex) {
+            // Entries written under an unknown version are dropped on the next change.
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = input.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                offset += read;
+            }
+            return new String(bytes, UTF8);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void writeFile(File file, String value) throws IOException {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(value.getBytes(UTF8));
+        } finally {
+            output.close();
+        }
+    }
+}
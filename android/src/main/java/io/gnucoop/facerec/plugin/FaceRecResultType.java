@@ -0,0 +1,16 @@
+package io.gnucoop.facerec.plugin;
+
+public enum FaceRecResultType {
+  Base64,
+  Uri;
+
+  public static FaceRecResultType fromInt(int value) {
+    if (value == 0) {
+      return FaceRecResultType.Base64;
+    }
+    if (value == 1) {
+      return FaceRecResultType.Uri;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,13 @@
+package io.gnucoop.facerec.plugin;
+
+public enum FaceRecStage {
+    Hash,
+    Decode,
+    Rotate,
+    Detect,
+    Crop,
+    Convert,
+    Inference,
+    Draw,
+    Encode
+}
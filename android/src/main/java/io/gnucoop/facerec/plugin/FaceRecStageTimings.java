@@ -0,0 +1,51 @@
+package io.gnucoop.facerec.plugin;
+
+import com.getcapacitor.JSObject;
+
+import java.util.Locale;
+
+class FaceRecStageTimings {
+    private static final FaceRecStage[] STAGES = FaceRecStage.values();
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final long[] nanos = new long[STAGES.length];
+    private final int[] counts = new int[STAGES.length];
+    private final long[] bytes = new long[STAGES.length];
+
+    void add(FaceRecStage stage, long elapsedNanos) {
+        nanos[stage.ordinal()] += elapsedNanos;
+        counts[stage.ordinal()]++;
+    }
+
+    void addBytes(FaceRecStage stage, long allocatedBytes) {
+        bytes[stage.ordinal()] += allocatedBytes;
+    }
+
+    long get(FaceRecStage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    int getCount(FaceRecStage stage) {
+        return counts[stage.ordinal()];
+    }
+
+    long getBytes(FaceRecStage stage) {
+        return bytes[stage.ordinal()];
+    }
+
+    synchronized void addAll(FaceRecStageTimings other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+            counts[i] += other.counts[i];
+            bytes[i] += other.bytes[i];
+        }
+    }
+
+    synchronized JSObject toJson(int divisor) {
+        JSObject json = new JSObject();
+        for (FaceRecStage stage : STAGES) {
+            json.put(stage.name().toLowerCase(Locale.US), nanos[stage.ordinal()] / NANOS_PER_MILLI / Math.max(1, divisor));
+        }
+        return json;
+    }
+}
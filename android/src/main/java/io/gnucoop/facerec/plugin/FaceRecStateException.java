@@ -0,0 +1,16 @@
+package io.gnucoop.facerec.plugin;
+
+/**
+ * Failure caused by the state of the plugin, such as models not loaded yet,
+ * whose message is meant to be returned to the caller as is. Other
+ * IllegalStateExceptions are bugs and are reported as processing errors.
+ */
+class FaceRecStateException extends IllegalStateException {
+    FaceRecStateException(String message) {
+        super(message);
+    }
+
+    FaceRecStateException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,122 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceRecArgbSamplerTest {
+    @Test
+    public void sample_copiesPixelsAtSameSize() throws Exception {
+        int[] src = new int[]{ gray(0), gray(10), gray(20), gray(30), gray(40), gray(50), gray(60), gray(70), gray(80) };
+        int[] out = new int[9];
+
+        FaceRecArgbSampler.sample(src, 3, 3, 0, new int[]{ 0, 0, 3, 3 }, 3, false, out);
+        assertArrayEquals(src, out);
+
+        out = new int[4];
+        FaceRecArgbSampler.sample(src, 3, 3, 0, new int[]{ 1, 1, 3, 3 }, 2, true, out);
+        assertArrayEquals(new int[]{ gray(40), gray(50), gray(70), gray(80) }, out);
+    }
+
+    @Test
+    public void sample_readsUprightQuadrants() throws Exception {
+        int[] src = quadrants(80, 60);
+        int[] out = new int[4];
+        int[] fullImage = new int[]{ 0, 0, 80, 60 };
+        int[] rotatedImage = new int[]{ 0, 0, 60, 80 };
+
+        FaceRecArgbSampler.sample(src, 80, 60, 0, fullImage, 2, false, out);
+        assertArrayEquals(new int[]{ gray(16), gray(96), gray(255), gray(176) }, out);
+
+        FaceRecArgbSampler.sample(src, 80, 60, 90, rotatedImage, 2, false, out);
+        assertArrayEquals(new int[]{ gray(255), gray(16), gray(176), gray(96) }, out);
+
+        FaceRecArgbSampler.sample(src, 80, 60, 180, fullImage, 2, true, out);
+        assertArrayEquals(new int[]{ gray(176), gray(255), gray(96), gray(16) }, out);
+
+        FaceRecArgbSampler.sample(src, 80, 60, 270, rotatedImage, 2, true, out);
+        assertArrayEquals(new int[]{ gray(96), gray(176), gray(16), gray(255) }, out);
+    }
+
+    @Test
+    public void sample_interpolatesBetweenPixels() throws Exception {
+        int[] src = new int[]{ gray(0), gray(100) };
+        int[] out = new int[1];
+
+        FaceRecArgbSampler.sample(src, 2, 1, 0, new int[]{ 0, 0, 2, 1 }, 1, false, out);
+        assertEquals(gray(50), out[0]);
+    }
+
+    @Test
+    public void sample_averagesAreaWhenDownscaling() throws Exception {
+        int size = 64;
+        int[] src = new int[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                src[y * size + x] = (x + y) % 2 == 0 ? gray(0) : gray(200);
+            }
+        }
+        int[] out = new int[16];
+
+        FaceRecArgbSampler.sample(src, size, size, 0, new int[]{ 0, 0, size, size }, 4, true, out);
+        for (int pixel : out) {
+            assertEquals(100, pixel & 0xFF, 1);
+        }
+    }
+
+    @Test
+    public void sample_writesIntoOutputArea() throws Exception {
+        int[] src = new int[]{ gray(10), gray(20), gray(30), gray(40) };
+        int[] out = new int[9];
+
+        FaceRecArgbSampler.sample(src, 2, 2, 0, new int[]{ 0, 0, 2, 2 }, 2, 2, false, out, 4, 3);
+        assertArrayEquals(new int[]{ 0, 0, 0, 0, gray(10), gray(20), 0, gray(30), gray(40) }, out);
+    }
+
+    @Test
+    public void reduceStrip_averagesBlocks() throws Exception {
+        int[] strip = new int[]{
+                gray(0), gray(10), gray(100), gray(100), gray(7),
+                gray(20), gray(30), gray(200), gray(100), gray(7) };
+        int[] out = new int[3];
+
+        FaceRecArgbSampler.reduceStrip(strip, 5, 2, out, 1, 2);
+        assertArrayEquals(new int[]{ 0, gray(15), gray(125) }, out);
+    }
+
+    @Test
+    public void faceRegion_letterboxesIntoBlackMargins() throws Exception {
+        int[] src = new int[]{ gray(10), gray(20), gray(30), gray(40) };
+        FaceRecFaceRegion region = new FaceRecFaceRegion(src, 4, 1, 0, new int[]{ 0, 0, 4, 1 });
+        region.letterbox = true;
+        int[] out = new int[16];
+
+        region.sample(4, false, out);
+        int black = gray(0);
+        assertArrayEquals(new int[]{
+                black, black, black, black,
+                gray(10), gray(20), gray(30), gray(40),
+                black, black, black, black,
+                black, black, black, black }, out);
+    }
+
+    private static int[] quadrants(int width, int height) {
+        int[] src = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level;
+                if (y < height / 2) {
+                    level = x < width / 2 ? 16 : 96;
+                } else {
+                    level = x < width / 2 ? 255 : 176;
+                }
+                src[y * width + x] = gray(level);
+            }
+        }
+        return src;
+    }
+
+    private static int gray(int level) {
+        return 0xFF000000 | (level << 16) | (level << 8) | level;
+    }
+}
@@ -0,0 +1,73 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceRecCropMathTest {
+    @Test
+    public void squareCrop_isCenteredOnFace() throws Exception {
+        int[] rect = new int[4];
+        FaceRecCropMath.squareCrop(500, 400, 200, 1000, 800, rect);
+        assertArrayEquals(new int[]{ 400, 300, 600, 500 }, rect);
+    }
+
+    @Test
+    public void squareCrop_isClampedToImage() throws Exception {
+        int[] rect = new int[4];
+        FaceRecCropMath.squareCrop(20, 790, 200, 1000, 800, rect);
+        assertArrayEquals(new int[]{ 0, 600, 200, 800 }, rect);
+        FaceRecCropMath.squareCrop(500, 400, 2000, 1000, 800, rect);
+        assertArrayEquals(new int[]{ 0, 0, 1000, 800 }, rect);
+    }
+
+    @Test
+    public void letterbox_fitsImageInSquare() throws Exception {
+        int[] rect = new int[4];
+        FaceRecCropMath.letterbox(400, 300, 200, rect);
+        assertArrayEquals(new int[]{ 0, 25, 200, 175 }, rect);
+        FaceRecCropMath.letterbox(300, 400, 200, rect);
+        assertArrayEquals(new int[]{ 25, 0, 175, 200 }, rect);
+        FaceRecCropMath.letterbox(300, 300, 200, rect);
+        assertArrayEquals(new int[]{ 0, 0, 200, 200 }, rect);
+    }
+
+    @Test
+    public void scaleRect_mapsToOriginalResolution() throws Exception {
+        int[] rect = new int[]{ 10, 20, 110, 120 };
+        FaceRecCropMath.scaleRect(rect, 4f, 1000, 470);
+        assertArrayEquals(new int[]{ 40, 80, 440, 470 }, rect);
+    }
+
+    @Test
+    public void toRawRect_undoesRotation() throws Exception {
+        // Raw image is 400x300, a rect at raw (10, 20)-(50, 80).
+        int rawWidth = 400;
+        int rawHeight = 300;
+
+        int[] rect = new int[]{ 220, 10, 280, 50 };
+        FaceRecCropMath.toRawRect(rect, 90, rawWidth, rawHeight);
+        assertArrayEquals(new int[]{ 10, 20, 50, 80 }, rect);
+
+        rect = new int[]{ 350, 220, 390, 280 };
+        FaceRecCropMath.toRawRect(rect, 180, rawWidth, rawHeight);
+        assertArrayEquals(new int[]{ 10, 20, 50, 80 }, rect);
+
+        rect = new int[]{ 20, 350, 80, 390 };
+        FaceRecCropMath.toRawRect(rect, 270, rawWidth, rawHeight);
+        assertArrayEquals(new int[]{ 10, 20, 50, 80 }, rect);
+
+        rect = new int[]{ 10, 20, 50, 80 };
+        FaceRecCropMath.toRawRect(rect, 0, rawWidth, rawHeight);
+        assertArrayEquals(new int[]{ 10, 20, 50, 80 }, rect);
+    }
+
+    @Test
+    public void sampleSizeFor_keepsTargetResolution() throws Exception {
+        assertEquals(1, FaceRecCropMath.sampleSizeFor(4000, 0));
+        assertEquals(1, FaceRecCropMath.sampleSizeFor(640, 640));
+        assertEquals(2, FaceRecCropMath.sampleSizeFor(1280, 640));
+        assertEquals(4, FaceRecCropMath.sampleSizeFor(4000, 640));
+        assertEquals(1, FaceRecCropMath.sampleSizeFor(50, 64));
+    }
+}
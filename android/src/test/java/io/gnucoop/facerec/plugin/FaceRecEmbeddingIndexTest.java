@@ -0,0 +1,121 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FaceRecEmbeddingIndexTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("embeddings", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void search_returnsTopMatchesByCosine() throws Exception {
+        FaceRecEmbeddingIndex index = FaceRecEmbeddingIndex.open(dir, 3);
+        index.add("x", new float[]{ 2, 0, 0 });
+        index.add("y", new float[]{ 0, 5, 0 });
+        index.add("xy", new float[]{ 1, 1, 0 });
+
+        List<FaceRecEmbeddingIndex.Match> matches = index.search(new float[]{ 1, 0.1f, 0 }, 2, -1);
+
+        assertEquals(2, matches.size());
+        assertEquals("x", matches.get(0).id);
+        assertEquals("xy", matches.get(1).id);
+        assertTrue(matches.get(0).score > matches.get(1).score);
+        assertEquals(0.995f, matches.get(0).score, 0.001f);
+        assertEquals(1, index.search(new float[]{ 0, 1, 0 }, 3, 0.9f).size());
+        index.close();
+    }
+
+    @Test
+    public void open_restoresPersistedVectors() throws Exception {
+        FaceRecEmbeddingIndex index = FaceRecEmbeddingIndex.open(dir, 4);
+        Random random = new Random(1);
+        float[] target = null;
+        for (int i = 0; i < 3000; i++) {
+            float[] vector = randomVector(random, 4);
+            index.add("face-" + i, vector);
+            if (i == 2500) {
+                target = vector;
+            }
+        }
+        index.close();
+
+        index = FaceRecEmbeddingIndex.open(dir, 4);
+        assertEquals(3000, index.size());
+        assertEquals("face-2500", index.search(target, 1, -1).get(0).id);
+        index.close();
+
+        try {
+            FaceRecEmbeddingIndex.open(dir, 8);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        FaceRecEmbeddingIndex.delete(dir);
+        index = FaceRecEmbeddingIndex.open(dir, 8);
+        assertEquals(0, index.size());
+        index.close();
+    }
+
+    @Test
+    public void remove_dropsAllVectorsOfId() throws Exception {
+        FaceRecEmbeddingIndex index = FaceRecEmbeddingIndex.open(dir, 2);
+        index.add("a", new float[]{ 1, 0 });
+        index.add("b", new float[]{ 0, 1 });
+        index.add("a", new float[]{ 0.9f, 0.1f });
+        index.add("c", new float[]{ -1, 0 });
+
+        assertEquals(2, index.remove("a"));
+        assertEquals(0, index.remove("a"));
+        assertEquals(2, index.size());
+        assertEquals("b", index.search(new float[]{ 0, 1 }, 1, -1).get(0).id);
+        assertEquals("c", index.search(new float[]{ -1, 0 }, 1, -1).get(0).id);
+        index.close();
+
+        index = FaceRecEmbeddingIndex.open(dir, 2);
+        assertEquals(2, index.size());
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.search(new float[]{ 1, 0 }, 5, -1).isEmpty());
+        index.close();
+    }
+
+    @Test
+    public void dot_handlesTail() throws Exception {
+        float[] a = new float[]{ 9, 1, 2, 3, 4, 5 };
+        float[] b = new float[]{ 1, 1, 1, 1, 1 };
+        assertEquals(15f, FaceRecEmbeddingIndex.dot(a, 1, b, 5), 0f);
+    }
+
+    static float[] randomVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,37 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceRecFaceFilterTest {
+    private static final int[] WIDTHS = new int[]{ 40, 200, 10, 120, 200 };
+    private static final int[] HEIGHTS = new int[]{ 60, 220, 12, 100, 180 };
+
+    @Test
+    public void select_keepsEveryFaceWhenDisabled() throws Exception {
+        FaceRecFaceFilter filter = new FaceRecFaceFilter(0, 0);
+        assertFalse(filter.isEnabled());
+        assertArrayEquals(new int[]{ 0, 1, 2, 3, 4 }, filter.select(WIDTHS, HEIGHTS));
+    }
+
+    @Test
+    public void select_dropsSmallFaces() throws Exception {
+        FaceRecFaceFilter filter = new FaceRecFaceFilter(60, 0);
+        assertArrayEquals(new int[]{ 0, 1, 3, 4 }, filter.select(WIDTHS, HEIGHTS));
+    }
+
+    @Test
+    public void select_keepsLargestFacesInDetectionOrder() throws Exception {
+        FaceRecFaceFilter filter = new FaceRecFaceFilter(0, 2);
+        assertArrayEquals(new int[]{ 1, 4 }, filter.select(WIDTHS, HEIGHTS));
+        filter = new FaceRecFaceFilter(100, 3);
+        assertArrayEquals(new int[]{ 1, 3, 4 }, filter.select(WIDTHS, HEIGHTS));
+    }
+
+    @Test
+    public void select_breaksTiesByDetectionOrder() throws Exception {
+        FaceRecFaceFilter filter = new FaceRecFaceFilter(0, 1);
+        assertArrayEquals(new int[]{ 0 }, filter.select(new int[]{ 50, 50 }, new int[]{ 50, 50 }));
+    }
+}
@@ -0,0 +1,80 @@
+package io.gnucoop.facerec.plugin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Replays NV21 frames recorded in a file, standing in for the camera preview.
+ * Each record holds the frame size, rotation, timestamp and pixel data.
+ */
+class FaceRecFileFrameSource {
+    private final DataInputStream input;
+
+    FaceRecFileFrameSource(File file) throws IOException {
+        input = new DataInputStream(new FileInputStream(file));
+    }
+
+    FaceRecFrame next() throws IOException {
+        int width;
+        try {
+            width = input.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        int height = input.readInt();
+        FaceRecFrame frame = new FaceRecFrame(new byte[width * height * 3 / 2], width, height);
+        frame.rotation = input.readInt();
+        frame.timestamp = input.readLong();
+        input.readFully(frame.data);
+        return frame;
+    }
+
+    void close() throws IOException {
+        input.close();
+    }
+
+    static void write(File file, FaceRecFrame... frames) throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            for (FaceRecFrame frame : frames) {
+                output.writeInt(frame.width);
+                output.writeInt(frame.height);
+                output.writeInt(frame.rotation);
+                output.writeLong(frame.timestamp);
+                output.write(frame.data);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Builds a frame split in four luma quadrants (16, 96, 176, 255 clockwise
+     * from top left) with neutral chroma.
+     */
+    static FaceRecFrame quadrantFrame(int width, int height, long timestamp) {
+        byte[] data = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int luma;
+                if (y < height / 2) {
+                    luma = x < width / 2 ? 16 : 96;
+                } else {
+                    luma = x < width / 2 ? 255 : 176;
+                }
+                data[y * width + x] = (byte) luma;
+            }
+        }
+        for (int i = width * height; i < data.length; i++) {
+            data[i] = (byte) 128;
+        }
+        FaceRecFrame frame = new FaceRecFrame(data, width, height);
+        frame.timestamp = timestamp;
+        return frame;
+    }
+}
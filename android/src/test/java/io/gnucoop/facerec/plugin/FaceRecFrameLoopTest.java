@@ -0,0 +1,143 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FaceRecFrameLoopTest {
+    private static final long FRAME_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private File framesFile;
+
+    @Before
+    public void setUp() throws Exception {
+        framesFile = File.createTempFile("frames", ".nv21");
+        FaceRecFrame[] frames = new FaceRecFrame[60];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = FaceRecFileFrameSource.quadrantFrame(64, 48, i * FRAME_INTERVAL);
+        }
+        FaceRecFileFrameSource.write(framesFile, frames);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        assertTrue(framesFile.delete());
+    }
+
+    @Test
+    public void slowProcessor_dropsFramesAndKeepsLatest() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        final CountDownLatch firstFrame = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FaceRecFrameLoop<Long> loop = new FaceRecFrameLoop<Long>(new FaceRecFrameLoop.Processor<Long>() {
+            @Override
+            public Long process(FaceRecFrame frame) throws Exception {
+                firstFrame.countDown();
+                release.await();
+                FaceRecNv21Sampler.sample(frame, new int[]{ 0, 0, 64, 48 }, 8, new int[64]);
+                return frame.timestamp;
+            }
+        }, listener, 0, Executors.defaultThreadFactory());
+        loop.start();
+
+        FaceRecFileFrameSource source = new FaceRecFileFrameSource(framesFile);
+        FaceRecFrame frame = source.next();
+        loop.submit(frame);
+        firstFrame.await();
+        int submitted = 1;
+        long lastTimestamp = frame.timestamp;
+        while ((frame = source.next()) != null) {
+            loop.submit(frame);
+            lastTimestamp = frame.timestamp;
+            submitted++;
+        }
+        source.close();
+        release.countDown();
+
+        listener.awaitReleased(submitted);
+        loop.stop();
+
+        assertEquals(2, loop.getProcessedFrameCount());
+        assertEquals(submitted - 2, loop.getDroppedFrameCount());
+        assertEquals(Long.valueOf(0), listener.results.get(0));
+        assertEquals(Long.valueOf(lastTimestamp), listener.results.get(1));
+        assertEquals(submitted, listener.released.size());
+    }
+
+    @Test
+    public void targetFps_throttlesAcceptedFrames() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        FaceRecFrameLoop<Long> loop = new FaceRecFrameLoop<Long>(new FaceRecFrameLoop.Processor<Long>() {
+            @Override
+            public Long process(FaceRecFrame frame) throws Exception {
+                return frame.timestamp;
+            }
+        }, listener, 25, Executors.defaultThreadFactory());
+        loop.start();
+
+        FaceRecFileFrameSource source = new FaceRecFileFrameSource(framesFile);
+        FaceRecFrame frame;
+        int submitted = 0;
+        int accepted = 0;
+        while ((frame = source.next()) != null) {
+            if (loop.submit(frame)) {
+                accepted++;
+            }
+            submitted++;
+        }
+        source.close();
+
+        listener.awaitReleased(submitted);
+        loop.stop();
+
+        // 60 frames 10ms apart at 25 fps: one frame every 40ms is accepted.
+        assertEquals(15, accepted);
+        assertEquals(submitted, loop.getProcessedFrameCount() + loop.getDroppedFrameCount());
+        List<Long> results = new ArrayList<Long>(listener.results);
+        for (int i = 1; i < results.size(); i++) {
+            assertTrue(results.get(i) - results.get(i - 1) >= TimeUnit.MILLISECONDS.toNanos(40));
+        }
+    }
+
+    private static class RecordingListener implements FaceRecFrameLoop.Listener<Long> {
+        final List<Long> results = Collections.synchronizedList(new ArrayList<Long>());
+        final List<FaceRecFrame> released = Collections.synchronizedList(new ArrayList<FaceRecFrame>());
+
+        @Override
+        public void onResult(FaceRecFrame frame, Long result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(FaceRecFrame frame, Exception ex) {
+            fail(ex.toString());
+        }
+
+        @Override
+        public void onRelease(FaceRecFrame frame) {
+            synchronized (released) {
+                released.add(frame);
+                released.notifyAll();
+            }
+        }
+
+        void awaitReleased(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (released) {
+                while (released.size() < count && System.currentTimeMillis() < deadline) {
+                    released.wait(100);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceRecHistogramTest {
+    @Test
+    public void bucketOf_matchesLowerBound() {
+        long[] values = new long[]{ 0, 1, 7, 8, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = FaceRecHistogram.bucketOf(value);
+            assertTrue(FaceRecHistogram.lowerBoundOf(bucket) <= value);
+            if (bucket + 1 < FaceRecHistogram.bucketOf(Long.MAX_VALUE)) {
+                assertTrue(FaceRecHistogram.lowerBoundOf(bucket + 1) > value);
+            }
+        }
+        assertEquals(FaceRecHistogram.bucketOf(8) + 1, FaceRecHistogram.bucketOf(9));
+        assertEquals(FaceRecHistogram.bucketOf(16), FaceRecHistogram.bucketOf(17));
+    }
+
+    @Test
+    public void getPercentile_isWithinBucketPrecision() {
+        FaceRecHistogram histogram = new FaceRecHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000L, histogram.getMin());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        assertEquals(500000, histogram.getPercentile(50), 500000 * 0.07);
+        assertEquals(950000, histogram.getPercentile(95), 950000 * 0.07);
+        assertEquals(990000, histogram.getPercentile(99), 990000 * 0.07);
+        assertEquals(1000000L, histogram.getPercentile(100));
+        assertEquals(1000L, histogram.getPercentile(0));
+    }
+
+    @Test
+    public void reset_clearsValues() {
+        FaceRecHistogram histogram = new FaceRecHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+        assertEquals(0, histogram.getMin());
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMax());
+    }
+}
@@ -0,0 +1,48 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FaceRecInputBufferPoolTest {
+    @Test
+    public void acquire_hasExactBatchCapacity() throws Exception {
+        FaceRecInputBufferPool pool = new FaceRecInputBufferPool(64, 3, 4, 8);
+        for (int count = 1; count <= 8; count++) {
+            ByteBuffer buffer = pool.acquire(count);
+            assertTrue(buffer.isDirect());
+            assertEquals(ByteOrder.nativeOrder(), buffer.order());
+            assertEquals(count * 64 * 64 * 3 * 4, buffer.capacity());
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test
+    public void acquire_steadyStateDoesNotAllocate() throws Exception {
+        FaceRecInputBufferPool pool = new FaceRecInputBufferPool(64, 3, 4, 4);
+        int[] pixels = pool.getPixels();
+        ByteBuffer[] views = new ByteBuffer[4];
+        for (int count = 1; count <= 4; count++) {
+            views[count - 1] = pool.acquire(count);
+        }
+        ByteBuffer first = pool.acquire(3);
+        first.putFloat(1f);
+        for (int i = 0; i < 1000; i++) {
+            ByteBuffer buffer = pool.acquire(1 + i % 4);
+            assertSame(views[i % 4], buffer);
+            buffer.putFloat(i);
+            assertSame(pixels, pool.getPixels());
+        }
+        ByteBuffer again = pool.acquire(3);
+        assertSame(first, again);
+        assertEquals(0, again.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void acquire_rejectsOversizedBatch() throws Exception {
+        new FaceRecInputBufferPool(64, 3, 4, 2).acquire(3);
+    }
+}
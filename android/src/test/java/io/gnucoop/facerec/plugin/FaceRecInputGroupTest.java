@@ -0,0 +1,91 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FaceRecInputGroupTest {
+    private static final int FACE_COUNT = 7;
+
+    @Test
+    public void run_batchedOutputsMatchSingleFaceRuns() throws Exception {
+        FaceRecFaceResults batched = run(3, Arrays.asList(3, 3, 1));
+        FaceRecFaceResults single = run(1, Arrays.asList(1, 1, 1, 1, 1, 1, 1));
+
+        assertEquals(2, batched.outputs.size());
+        for (int head = 0; head < 2; head++) {
+            for (int face = 0; face < FACE_COUNT; face++) {
+                float[] output = batched.outputs.get(head).values[face];
+                assertArrayEquals(single.outputs.get(head).values[face], output, 0f);
+                assertEquals(face, output[0], 0f);
+            }
+        }
+    }
+
+    private static FaceRecFaceResults run(int batchSize, List<Integer> expectedBatches) {
+        FaceRecModelSpec spec = new FaceRecModelSpec();
+        spec.inputSize = 4;
+        spec.imageMean = new float[]{ 0f, 0f, 0f };
+        spec.imageStd = new float[]{ 1f, 1f, 1f };
+        FaceRecInputGroup group = new FaceRecInputGroup(spec, batchSize);
+        FakeHead first = new FakeHead(spec, "first");
+        FakeHead second = new FakeHead(spec, "second");
+        group.heads.add(first);
+        group.heads.add(second);
+
+        FaceRecFaceResults results = new FaceRecFaceResults(FACE_COUNT);
+        group.run(results, batchSize, new FaceRecInputGroup.PixelSource() {
+            @Override
+            public void getPixels(int face, int size, int[] pixels) {
+                for (int i = 0; i < size * size; i++) {
+                    pixels[i] = 0xFF000000 | (face << 16) | (i << 8) | (face + i);
+                }
+            }
+        }, new FaceRecStageTimings());
+
+        assertEquals(expectedBatches, first.batches);
+        assertEquals(expectedBatches, second.batches);
+        return results;
+    }
+
+    /**
+     * Returns, for each input of a batch, its first red value and the sum
+     * of all its values.
+     */
+    static class FakeHead extends FaceRecModelHead {
+        final List<Integer> batches = new ArrayList<Integer>();
+
+        FakeHead(FaceRecModelSpec spec, String name) {
+            super(copyWithName(spec, name), 2);
+        }
+
+        @Override
+        float[][] run(ByteBuffer input, int count) {
+            batches.add(count);
+            int inputLength = spec.inputSize * spec.inputSize * spec.pixelSize;
+            assertEquals(count * inputLength * 4, input.capacity());
+            input.rewind();
+            FloatBuffer values = input.asFloatBuffer();
+            float[][] outputs = new float[count][outputSize];
+            for (int i = 0; i < count; i++) {
+                outputs[i][0] = values.get(i * inputLength);
+                for (int j = 0; j < inputLength; j++) {
+                    outputs[i][1] += values.get(i * inputLength + j);
+                }
+            }
+            return outputs;
+        }
+
+        private static FaceRecModelSpec copyWithName(FaceRecModelSpec spec, String name) {
+            FaceRecModelSpec copy = spec.copyInputSpec();
+            copy.name = name;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package io.gnucoop.facerec.plugin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FaceRecModelDownloaderTest {
+    private HttpServer server;
+    private ModelHandler handler;
+    private URL url;
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        handler = new ModelHandler();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/model.tflite", handler);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/model.tflite");
+        dir = File.createTempFile("models", "");
+        assertTrue(dir.delete());
+        target = new File(new File(dir, "gender_age_model"), "model.tflite");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        File parent = target.getParentFile();
+        File[] files = parent.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        parent.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void download_writesFileAtomically() throws Exception {
+        handler.content = content(200000, 1);
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        RecordingListener listener = new RecordingListener();
+
+        assertEquals(FaceRecModelDownloader.Result.Downloaded,
+                new FaceRecModelDownloader(state, listener).download(url, target));
+
+        assertArrayEquals(handler.content, read(target));
+        assertFalse(new File(target.getPath() + FaceRecModelDownloader.PART_SUFFIX).exists());
+        assertEquals("\"v1\"", state.eTag);
+        assertNull(state.partialValidator);
+        assertEquals(200000, listener.lastBytesRead);
+        assertEquals(200000, listener.lastTotalBytes);
+    }
+
+    @Test
+    public void download_revalidatesWithETag() throws Exception {
+        handler.content = content(1000, 1);
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        new FaceRecModelDownloader(state, new RecordingListener()).download(url, target);
+
+        assertEquals(FaceRecModelDownloader.Result.NotModified,
+                new FaceRecModelDownloader(state, new RecordingListener()).download(url, target));
+        assertEquals("\"v1\"", handler.lastHeader("If-None-Match"));
+        assertEquals(Integer.valueOf(304), handler.responseCodes.get(1));
+        assertArrayEquals(handler.content, read(target));
+    }
+
+    @Test
+    public void download_resumesInterruptedTransfer() throws Exception {
+        handler.content = content(150000, 2);
+        handler.truncateAt = 60000;
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        try {
+            new FaceRecModelDownloader(state, new RecordingListener()).download(url, target);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(target.exists());
+        File partFile = new File(target.getPath() + FaceRecModelDownloader.PART_SUFFIX);
+        assertTrue(partFile.length() > 0);
+        assertEquals("\"v1\"", state.partialValidator);
+
+        handler.truncateAt = -1;
+        long resumeFrom = partFile.length();
+        assertEquals(FaceRecModelDownloader.Result.Downloaded,
+                new FaceRecModelDownloader(state, new RecordingListener()).download(url, target));
+
+        assertEquals("bytes=" + resumeFrom + "-", handler.lastHeader("Range"));
+        assertEquals("\"v1\"", handler.lastHeader("If-Range"));
+        assertEquals(Integer.valueOf(206), handler.responseCodes.get(1));
+        assertArrayEquals(handler.content, read(target));
+        assertFalse(partFile.exists());
+    }
+
+    @Test
+    public void download_restartsWhenResourceChanged() throws Exception {
+        handler.content = content(150000, 3);
+        handler.truncateAt = 60000;
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        try {
+            new FaceRecModelDownloader(state, new RecordingListener()).download(url, target);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        handler.truncateAt = -1;
+        handler.content = content(120000, 4);
+        handler.eTag = "\"v2\"";
+        new FaceRecModelDownloader(state, new RecordingListener()).download(url, target);
+
+        assertEquals(Integer.valueOf(200), handler.responseCodes.get(1));
+        assertArrayEquals(handler.content, read(target));
+        assertEquals("\"v2\"", state.eTag);
+    }
+
+    @Test
+    public void download_skipsRequestUntilExpired() throws Exception {
+        handler.content = content(1000, 5);
+        FaceRecModelDownloader.State state = new FaceRecModelDownloader.State();
+        new FaceRecModelDownloader(state, new RecordingListener()).download(url, target);
+
+        state.expires = System.currentTimeMillis() + 60000;
+        assertEquals(FaceRecModelDownloader.Result.NotModified,
+                new FaceRecModelDownloader(state, new RecordingListener()).download(url, target));
+        assertEquals(1, handler.responseCodes.size());
+    }
+
+    @Test
+    public void getRangeStart_parsesContentRange() throws Exception {
+        assertEquals(100, FaceRecModelDownloader.getRangeStart("bytes 100-199/200"));
+        assertEquals(-1, FaceRecModelDownloader.getRangeStart("bytes */200"));
+        assertEquals(-1, FaceRecModelDownloader.getRangeStart(null));
+    }
+
+    private static byte[] content(int length, int seed) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31 + seed);
+        }
+        return content;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[(int) input.length()];
+            input.readFully(content);
+            return content;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static class RecordingListener implements FaceRecModelDownloader.Listener {
+        long lastBytesRead;
+        long lastTotalBytes;
+
+        @Override
+        public void onProgress(long bytesRead, long totalBytes) {
+            lastBytesRead = bytesRead;
+            lastTotalBytes = totalBytes;
+        }
+    }
+
+    private static class ModelHandler implements HttpHandler {
+        volatile byte[] content;
+        volatile String eTag = "\"v1\"";
+        volatile int truncateAt = -1;
+        final List<Integer> responseCodes = Collections.synchronizedList(new ArrayList<Integer>());
+        private volatile HttpExchange lastExchange;
+
+        String lastHeader(String name) {
+            return lastExchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            lastExchange = exchange;
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            exchange.getResponseHeaders().set("ETag", eTag);
+
+            if (eTag.equals(ifNoneMatch)) {
+                send(exchange, 304, -1, 0);
+                return;
+            }
+            int start = 0;
+            int code = 200;
+            if (range != null && (ifRange == null || eTag.equals(ifRange))) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                code = 206;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            }
+            send(exchange, code, content.length - start, start);
+        }
+
+        private void send(HttpExchange exchange, int code, int length, int start) throws IOException {
+            responseCodes.add(code);
+            exchange.sendResponseHeaders(code, length);
+            OutputStream output = exchange.getResponseBody();
+            if (length > 0 && truncateAt > -1) {
+                output.write(content, start, truncateAt - start);
+                output.flush();
+                // Failing the handler makes the server drop the connection mid-body.
+                throw new IOException("Connection dropped");
+            }
+            if (length > 0) {
+                output.write(content, start, length);
+            }
+            output.close();
+            exchange.close();
+        }
+    }
+}
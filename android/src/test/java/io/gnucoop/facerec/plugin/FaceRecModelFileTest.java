@@ -0,0 +1,82 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class FaceRecModelFileTest {
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    private File modelFile;
+
+    @Before
+    public void setUp() throws Exception {
+        modelFile = File.createTempFile("model", ".tflite");
+        write(modelFile, "abc");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        modelFile.delete();
+        FaceRecModelFile.getChecksumFile(modelFile).delete();
+    }
+
+    @Test
+    public void map_isReadOnlyView() throws Exception {
+        MappedByteBuffer buffer = FaceRecModelFile.map(modelFile);
+        assertTrue(buffer.isReadOnly());
+        assertTrue(buffer.isDirect());
+        assertEquals(3, buffer.capacity());
+    }
+
+    @Test
+    public void sha256_matchesKnownDigest() throws Exception {
+        MappedByteBuffer buffer = FaceRecModelFile.map(modelFile);
+        assertEquals(ABC_SHA256, FaceRecModelFile.sha256(buffer));
+        assertTrue(FaceRecModelFile.matches(buffer, ABC_SHA256.toUpperCase()));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void sha256_detectsTruncatedModel() throws Exception {
+        write(modelFile, "ab");
+        assertFalse(FaceRecModelFile.matches(FaceRecModelFile.map(modelFile), ABC_SHA256));
+    }
+
+    @Test
+    public void readChecksum_parsesSidecar() throws Exception {
+        File checksumFile = FaceRecModelFile.getChecksumFile(modelFile);
+        assertNull(FaceRecModelFile.readChecksum(checksumFile));
+        write(checksumFile, ABC_SHA256.toUpperCase() + "  model.tflite\n");
+        assertEquals(ABC_SHA256, FaceRecModelFile.readChecksum(checksumFile));
+    }
+
+    @Test
+    public void readChecksum_ignoresNonDigestContent() throws Exception {
+        File checksumFile = FaceRecModelFile.getChecksumFile(modelFile);
+        write(checksumFile, "<html><body>Not found</body></html>\n");
+        assertNull(FaceRecModelFile.readChecksum(checksumFile));
+        write(checksumFile, ABC_SHA256.substring(1) + "  model.tflite\n");
+        assertNull(FaceRecModelFile.readChecksum(checksumFile));
+        write(checksumFile, ABC_SHA256.replace('a', 'g'));
+        assertNull(FaceRecModelFile.readChecksum(checksumFile));
+        write(checksumFile, ABC_SHA256 + "\tmodel.tflite");
+        assertEquals(ABC_SHA256, FaceRecModelFile.readChecksum(checksumFile));
+    }
+
+    private static void write(File file, String content) throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes(Charset.forName("US-ASCII")));
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FaceRecModelHeadTest {
+    @Test
+    public void decodeOutputs_splitsFloatBatch() throws Exception {
+        ByteBuffer output = ByteBuffer.allocateDirect(2 * 3 * 4).order(ByteOrder.nativeOrder());
+        output.asFloatBuffer().put(new float[]{ 0.1f, 0.2f, 0.7f, 0.5f, 0.25f, 0.25f });
+
+        float[][] results = FaceRecModelHead.decodeOutputs(output, false, 2, 3);
+
+        assertArrayEquals(new float[]{ 0.1f, 0.2f, 0.7f }, results[0], 0f);
+        assertArrayEquals(new float[]{ 0.5f, 0.25f, 0.25f }, results[1], 0f);
+    }
+
+    @Test
+    public void decodeOutputs_dequantizesBytes() throws Exception {
+        ByteBuffer output = ByteBuffer.allocateDirect(4);
+        output.put(new byte[]{ 0, (byte) 255, (byte) 51, (byte) 204 });
+
+        float[][] results = FaceRecModelHead.decodeOutputs(output, true, 2, 2);
+
+        assertArrayEquals(new float[]{ 0f, 1f }, results[0], 0f);
+        assertArrayEquals(new float[]{ 0.2f, 0.8f }, results[1], 1e-6f);
+    }
+}
@@ -0,0 +1,109 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FaceRecModelRegistryTest {
+    @Test
+    public void acquire_returnsCachedInstanceForSameKey() throws Exception {
+        FaceRecModelRegistry registry = new FaceRecModelRegistry();
+        CountingLoader loader = new CountingLoader();
+
+        FakeModel first = registry.acquire("gender", "model-a", FakeModel.class, loader);
+        FakeModel second = registry.acquire("gender", "model-a", FakeModel.class, loader);
+
+        assertSame(first, second);
+        assertEquals(1, loader.loads);
+        assertFalse(first.closed);
+        assertTrue(registry.contains("gender", "model-a"));
+    }
+
+    @Test
+    public void acquire_closesReplacedInstance() throws Exception {
+        FaceRecModelRegistry registry = new FaceRecModelRegistry();
+        CountingLoader loader = new CountingLoader();
+
+        FakeModel first = registry.acquire("gender", "model-a", FakeModel.class, loader);
+        FakeModel detector = registry.acquire("detector", "fast", FakeModel.class, loader);
+        FakeModel second = registry.acquire("gender", "model-b", FakeModel.class, loader);
+
+        assertNotSame(first, second);
+        assertTrue(first.closed);
+        assertFalse(detector.closed);
+        assertNull(registry.get("gender", "model-a", FakeModel.class));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void acquire_keepsPreviousInstanceWhenLoadFails() throws Exception {
+        FaceRecModelRegistry registry = new FaceRecModelRegistry();
+        FakeModel first = registry.acquire("gender", "model-a", FakeModel.class, new CountingLoader());
+        try {
+            registry.acquire("gender", "model-b", FakeModel.class, new FaceRecModelRegistry.Loader<FakeModel>() {
+                @Override
+                public FakeModel load() throws Exception {
+                    throw new IllegalArgumentException("corrupt model");
+                }
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(first.closed);
+        assertSame(first, registry.get("gender", "model-a", FakeModel.class));
+    }
+
+    @Test
+    public void releaseAll_closesEverything() throws Exception {
+        FaceRecModelRegistry registry = new FaceRecModelRegistry();
+        CountingLoader loader = new CountingLoader();
+        FakeModel gender = registry.acquire("gender", "model-a", FakeModel.class, loader);
+        FakeModel detector = registry.acquire("detector", "fast", FakeModel.class, loader);
+
+        assertEquals(2, registry.releaseAll());
+
+        assertTrue(gender.closed);
+        assertTrue(detector.closed);
+        assertEquals(0, registry.size());
+        assertNotSame(gender, registry.acquire("gender", "model-a", FakeModel.class, loader));
+        assertEquals(3, loader.loads);
+    }
+
+    @Test
+    public void releaseExcept_closesUnusedSlots() throws Exception {
+        FaceRecModelRegistry registry = new FaceRecModelRegistry();
+        CountingLoader loader = new CountingLoader();
+        FakeModel detector = registry.acquire("detector", "fast", FakeModel.class, loader);
+        FakeModel gender = registry.acquire("model:gender", "model-a", FakeModel.class, loader);
+        FakeModel age = registry.acquire("model:age", "model-b", FakeModel.class, loader);
+
+        assertEquals(1, registry.releaseExcept(Arrays.asList("detector", "model:gender")));
+
+        assertFalse(detector.closed);
+        assertFalse(gender.closed);
+        assertTrue(age.closed);
+        assertFalse(registry.contains("model:age", "model-b"));
+    }
+
+    private static class FakeModel implements AutoCloseable {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class CountingLoader implements FaceRecModelRegistry.Loader<FakeModel> {
+        int loads;
+
+        @Override
+        public FakeModel load() {
+            loads++;
+            return new FakeModel();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceRecNv21SamplerTest {
+    @Test
+    public void yuvToArgb_convertsPrimaries() throws Exception {
+        assertEquals(0xFF808080, FaceRecNv21Sampler.yuvToArgb(128, 0, 0));
+        int red = FaceRecNv21Sampler.yuvToArgb(76, -43, 127);
+        assertTrue(((red >> 16) & 0xFF) > 250);
+        assertTrue(((red >> 8) & 0xFF) < 5);
+        assertTrue((red & 0xFF) < 5);
+    }
+
+    @Test
+    public void sample_readsUprightQuadrants() throws Exception {
+        FaceRecFrame frame = FaceRecFileFrameSource.quadrantFrame(80, 60, 0);
+        int[] pixels = new int[4];
+        int[] fullFrame = new int[]{ 0, 0, 80, 60 };
+
+        FaceRecNv21Sampler.sample(frame, fullFrame, 2, pixels);
+        assertArrayEquals(new int[]{ gray(16), gray(96), gray(255), gray(176) }, pixels);
+
+        frame.rotation = 90;
+        int[] rotatedFrame = new int[]{ 0, 0, 60, 80 };
+        FaceRecNv21Sampler.sample(frame, rotatedFrame, 2, pixels);
+        assertArrayEquals(new int[]{ gray(255), gray(16), gray(176), gray(96) }, pixels);
+
+        frame.rotation = 180;
+        FaceRecNv21Sampler.sample(frame, fullFrame, 2, pixels);
+        assertArrayEquals(new int[]{ gray(176), gray(255), gray(96), gray(16) }, pixels);
+
+        frame.rotation = 270;
+        FaceRecNv21Sampler.sample(frame, rotatedFrame, 2, pixels);
+        assertArrayEquals(new int[]{ gray(96), gray(176), gray(16), gray(255) }, pixels);
+    }
+
+    @Test
+    public void sample_cropsRegion() throws Exception {
+        FaceRecFrame frame = FaceRecFileFrameSource.quadrantFrame(80, 60, 0);
+        int[] pixels = new int[16];
+        FaceRecNv21Sampler.sample(frame, new int[]{ 40, 30, 80, 60 }, 4, pixels);
+        for (int pixel : pixels) {
+            assertEquals(gray(176), pixel);
+        }
+    }
+
+    private static int gray(int luma) {
+        return 0xFF000000 | (luma << 16) | (luma << 8) | luma;
+    }
+}
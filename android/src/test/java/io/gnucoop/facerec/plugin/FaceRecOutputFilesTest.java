@@ -0,0 +1,85 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FaceRecOutputFilesTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("facerec", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void create_trimsOldestFilesToSizeLimit() throws Exception {
+        FaceRecOutputFiles outputFiles = new FaceRecOutputFiles(dir, 25, 0);
+        File first = write(outputFiles.create(".bin"), 10);
+        first.setLastModified(System.currentTimeMillis() - 10000);
+        File second = write(outputFiles.create(".bin"), 10);
+        File third = write(outputFiles.create(".jpg"), 10);
+        assertEquals(30, outputFiles.getBytes());
+
+        File fourth = outputFiles.create(".jpg");
+        assertFalse(first.exists());
+        assertTrue(second.exists());
+        assertTrue(third.exists());
+        assertTrue(fourth.exists());
+        assertEquals(20, outputFiles.getBytes());
+    }
+
+    @Test
+    public void create_deletesExpiredFiles() throws Exception {
+        FaceRecOutputFiles outputFiles = new FaceRecOutputFiles(dir, 0, 60000);
+        File expired = write(outputFiles.create(".jpg"), 10);
+        expired.setLastModified(System.currentTimeMillis() - 120000);
+        File recent = write(outputFiles.create(".jpg"), 10);
+
+        outputFiles.create(".jpg");
+        assertFalse(expired.exists());
+        assertTrue(recent.exists());
+    }
+
+    @Test
+    public void clear_keepsOtherFiles() throws Exception {
+        FaceRecOutputFiles outputFiles = new FaceRecOutputFiles(dir, 0, 0);
+        write(outputFiles.create(".jpg"), 10);
+        write(outputFiles.create(".bin"), 10);
+        File other = write(new File(dir, "version"), 1);
+        File results = new File(dir, "results");
+        assertTrue(results.mkdir());
+
+        assertEquals(2, outputFiles.clear());
+        assertEquals(0, outputFiles.getBytes());
+        assertTrue(other.exists());
+        assertTrue(results.exists());
+    }
+
+    private static File write(File file, int length) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(new byte[length]);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+}
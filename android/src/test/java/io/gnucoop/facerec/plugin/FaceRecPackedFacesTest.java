@@ -0,0 +1,122 @@
+package io.gnucoop.facerec.plugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FaceRecPackedFacesTest {
+    @Test
+    public void pack_writesBoundsAndOutputsPerFace() throws Exception {
+        JSONArray faces = new JSONArray();
+        JSONObject first = FaceRecFaceJson.putBounds(new JSONObject(), 1, 2, 30, 40);
+        first.put("gender", FaceRecFaceJson.output(new String[]{ "male", "female" }, new float[]{ 0.25f, 0.75f }));
+        faces.put(first);
+        JSONObject second = FaceRecFaceJson.putBounds(new JSONObject(), 5, 6, 70, 80);
+        second.put("embedding", FaceRecFaceJson.output(null, new float[]{ 0.5f, -0.5f }));
+        second.put("matches", new JSONArray().put(new JSONObject().put("id", "a")));
+        faces.put(second);
+
+        FaceRecPackedFaces packed = FaceRecPackedFaces.fromJson(faces);
+        assertEquals(2, packed.getCount());
+        assertEquals(8, packed.getStride());
+
+        JSONArray fields = packed.getFieldsJson();
+        assertEquals(6, fields.length());
+        assertEquals("x", fields.getJSONObject(0).getString("name"));
+        assertEquals("height", fields.getJSONObject(3).getString("name"));
+        JSONObject gender = findField(fields, "gender");
+        assertEquals(FaceRecPackedFaces.TYPE_LABELS, gender.getString("type"));
+        assertEquals(2, gender.getInt("size"));
+        JSONObject embedding = findField(fields, "embedding");
+        assertEquals(FaceRecPackedFaces.TYPE_ARRAY, embedding.getString("type"));
+        assertNull(findField(fields, "matches"));
+
+        ByteBuffer data = ByteBuffer.wrap(packed.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(2 * 8 * 4, data.capacity());
+        assertEquals(30f, data.getFloat(2 * 4), 0f);
+        int male = gender.getJSONArray("labels").getString(0).equals("male") ? 0 : 1;
+        assertEquals(0.25f, data.getFloat((gender.getInt("offset") + male) * 4), 0f);
+        assertTrue(Float.isNaN(data.getFloat(embedding.getInt("offset") * 4)));
+        assertEquals(80f, data.getFloat((8 + 3) * 4), 0f);
+        assertEquals(-0.5f, data.getFloat((8 + embedding.getInt("offset") + 1) * 4), 0f);
+        assertTrue(Float.isNaN(data.getFloat((8 + gender.getInt("offset")) * 4)));
+    }
+
+    @Test
+    public void pack_handlesNoFaces() throws Exception {
+        FaceRecPackedFaces packed = FaceRecPackedFaces.fromJson(null);
+        assertEquals(0, packed.getCount());
+        assertEquals(4, packed.getStride());
+        assertEquals(0, packed.toByteArray().length);
+    }
+
+    @Test
+    public void fromResults_matchesPackedJson() throws Exception {
+        FaceRecFaceResults results = new FaceRecFaceResults(2);
+        results.setBounds(0, 1, 2, 30, 40);
+        results.setBounds(1, 5, 6, 70, 80);
+        results.trackingIds[1] = 7;
+        String[] labels = new String[]{ "male", "female" };
+        results.setOutput("gender", labels, 0, new float[]{ 0.25f, 0.75f });
+        results.setOutput("gender", labels, 1, new float[]{ 0.5f, 0.5f });
+        results.setOutput("embedding", null, 0, new float[]{ 0.5f, -0.5f, 1f });
+        results.setOutput("embedding", null, 1, new float[]{ -1f, 2f, 0f });
+
+        FaceRecPackedFaces packed = FaceRecPackedFaces.fromResults(results);
+        FaceRecPackedFaces packedJson = FaceRecPackedFaces.fromJson(results.facesToJson());
+        assertEquals(packedJson.getCount(), packed.getCount());
+        assertEquals(packedJson.getStride(), packed.getStride());
+        assertEquals(packedJson.getFieldsJson().length(), packed.getFieldsJson().length());
+        for (int face = 0; face < 2; face++) {
+            for (String name : new String[]{ "x", "height", "trackingId", "gender", "embedding" }) {
+                for (int i = 0; i < findField(packed.getFieldsJson(), name).getInt("size"); i++) {
+                    String label = getLabel(packed, name, i);
+                    assertEquals(name + "[" + face + "]",
+                            getValue(packedJson, face, name, label != null ? label : i),
+                            getValue(packed, face, name, label != null ? label : i), 0f);
+                }
+            }
+        }
+
+        JSONObject trackingId = findField(packed.getFieldsJson(), "trackingId");
+        ByteBuffer data = ByteBuffer.wrap(packed.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertTrue(Float.isNaN(data.getFloat(trackingId.getInt("offset") * 4)));
+        assertEquals(7f, data.getFloat((packed.getStride() + trackingId.getInt("offset")) * 4), 0f);
+    }
+
+    private static String getLabel(FaceRecPackedFaces packed, String name, int index) throws Exception {
+        JSONArray labels = findField(packed.getFieldsJson(), name).optJSONArray("labels");
+        return labels != null ? labels.getString(index) : null;
+    }
+
+    private static float getValue(FaceRecPackedFaces packed, int face, String name, Object index) throws Exception {
+        JSONObject field = findField(packed.getFieldsJson(), name);
+        int offset = field.getInt("offset");
+        if (index instanceof String) {
+            JSONArray labels = field.getJSONArray("labels");
+            for (int i = 0; i < labels.length(); i++) {
+                if (labels.getString(i).equals(index)) {
+                    offset += i;
+                }
+            }
+        } else {
+            offset += (Integer) index;
+        }
+        ByteBuffer data = ByteBuffer.wrap(packed.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        return data.getFloat((face * packed.getStride() + offset) * 4);
+    }
+
+    private static JSONObject findField(JSONArray fields, String name) throws Exception {
+        for (int i = 0; i < fields.length(); i++) {
+            if (fields.getJSONObject(i).getString("name").equals(name)) {
+                return fields.getJSONObject(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FaceRecPixelConverterTest {
+    private static final float[] MEAN = new float[]{ 127.5f, 120f, 100f };
+    private static final float[] STD = new float[]{ 127.5f, 64f, 0f };
+
+    @Test
+    public void convert_floatMatchesDirectNormalization() throws Exception {
+        int[] pixels = randomPixels(64 * 64);
+        ByteBuffer out = ByteBuffer.allocateDirect(pixels.length * 3 * 4).order(ByteOrder.nativeOrder());
+        new FaceRecPixelConverter(true, true, MEAN, STD).convert(pixels, pixels.length, out);
+        assertEquals(out.capacity(), out.position());
+        out.rewind();
+        for (int val : pixels) {
+            assertEquals((((val >> 16) & 0xFF) - MEAN[0]) / STD[0], out.getFloat(), 1e-6f);
+            assertEquals((((val >> 8) & 0xFF) - MEAN[1]) / STD[1], out.getFloat(), 1e-6f);
+            assertEquals((val & 0xFF) - MEAN[2], out.getFloat(), 1e-6f);
+        }
+    }
+
+    @Test
+    public void convert_quantizedCopiesBgrBytes() throws Exception {
+        int[] pixels = randomPixels(32 * 32);
+        ByteBuffer out = ByteBuffer.allocateDirect(pixels.length * 3).order(ByteOrder.nativeOrder());
+        new FaceRecPixelConverter(false, false, MEAN, STD).convert(pixels, pixels.length, out);
+        out.rewind();
+        for (int val : pixels) {
+            assertEquals(val & 0xFF, out.get() & 0xFF);
+            assertEquals((val >> 8) & 0xFF, out.get() & 0xFF);
+            assertEquals((val >> 16) & 0xFF, out.get() & 0xFF);
+        }
+    }
+
+    @Test
+    public void convert_appendsAfterCurrentPosition() throws Exception {
+        int[] pixels = randomPixels(16);
+        ByteBuffer out = ByteBuffer.allocateDirect(2 * pixels.length * 3 * 4).order(ByteOrder.nativeOrder());
+        FaceRecPixelConverter converter = new FaceRecPixelConverter(true, true, MEAN, STD);
+        converter.convert(pixels, pixels.length, out);
+        converter.convert(pixels, pixels.length, out);
+        assertFalse(out.hasRemaining());
+        for (int i = 0; i < pixels.length * 3; i++) {
+            assertEquals(out.getFloat(i * 4), out.getFloat((pixels.length * 3 + i) * 4), 0f);
+        }
+    }
+
+    private static int[] randomPixels(int count) {
+        Random random = new Random(42);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+}
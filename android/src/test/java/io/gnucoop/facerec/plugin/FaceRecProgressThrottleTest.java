@@ -0,0 +1,62 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FaceRecProgressThrottleTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void update_limitsEventsByTimeAndStep() throws Exception {
+        FaceRecProgressThrottle throttle = new FaceRecProgressThrottle(250, 0.01f);
+        long total = 20 * 1024 * 1024;
+        int reports = 0;
+        int chunks = 0;
+        // 20 MB in 4 KB chunks at 4 MB/s
+        for (long read = 0; read <= total; read += 4096) {
+            long now = read * 1000 / (4 * 1024 * 1024) * MS;
+            if (throttle.update(read, total, now)) {
+                reports++;
+            }
+            chunks++;
+        }
+        assertEquals(5121, chunks);
+        // first + one every 250 ms over 5 s + last
+        assertTrue(reports >= 20 && reports <= 22);
+        assertEquals(1f, throttle.getProgress(), 0f);
+        assertEquals(4 * 1024 * 1024, throttle.bytesPerSecond, 4096);
+        assertEquals(0, throttle.etaMillis);
+    }
+
+    @Test
+    public void update_reportsRateAndEta() throws Exception {
+        FaceRecProgressThrottle throttle = new FaceRecProgressThrottle(0, 0);
+        assertTrue(throttle.update(1000, 11000, 0));
+        assertEquals(-1, throttle.etaMillis);
+        assertTrue(throttle.update(3000, 11000, 1000 * MS));
+        assertEquals(2000, throttle.bytesPerSecond);
+        assertEquals(4000, throttle.etaMillis);
+    }
+
+    @Test
+    public void update_stepSuppressesSmallProgress() throws Exception {
+        FaceRecProgressThrottle throttle = new FaceRecProgressThrottle(0, 0.5f);
+        assertTrue(throttle.update(0, 100, 0));
+        assertFalse(throttle.update(40, 100, 1000 * MS));
+        assertTrue(throttle.update(50, 100, 2000 * MS));
+        assertFalse(throttle.update(60, 100, 3000 * MS));
+        assertTrue(throttle.update(100, 100, 4000 * MS));
+    }
+
+    @Test
+    public void update_unknownLengthUsesIntervalOnly() throws Exception {
+        FaceRecProgressThrottle throttle = new FaceRecProgressThrottle(100, 0.5f);
+        assertTrue(throttle.update(0, -1, 0));
+        assertFalse(throttle.update(10, -1, 50 * MS));
+        assertTrue(throttle.update(20, -1, 100 * MS));
+        assertEquals(-1, throttle.etaMillis);
+    }
+}
@@ -0,0 +1,143 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FaceRecRequestRegistryTest {
+    private static final int REQUEST_COUNT = 2000;
+    private static final int THREAD_COUNT = 8;
+
+    /**
+     * Runs overlapping requests through the registry, a shared worker pool
+     * and a shared input group, the way image requests are processed, and
+     * checks that each request completes once with the result of its own
+     * image.
+     */
+    @Test
+    public void overlappingRequests_getTheirOwnResults() throws Exception {
+        final FaceRecRequestRegistry registry = new FaceRecRequestRegistry();
+        FaceRecModelSpec spec = new FaceRecModelSpec();
+        spec.inputSize = 4;
+        spec.imageMean = new float[]{ 0f, 0f, 0f };
+        spec.imageStd = new float[]{ 1f, 1f, 1f };
+        final FaceRecInputGroup group = new FaceRecInputGroup(spec, 4);
+        group.heads.add(new FaceRecInputGroupTest.FakeHead(spec, "first"));
+        final ConcurrentHashMap<String, FaceRecFaceResults> results =
+                new ConcurrentHashMap<String, FaceRecFaceResults>();
+        final AtomicInteger lateCompletions = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+
+        List<FaceRecRequest> requests = new ArrayList<FaceRecRequest>();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            final FaceRecRequest request = new FaceRecRequest("call-" + i, null);
+            request.imageFilePath = "/images/" + i + ".jpg";
+            registry.register(request);
+            requests.add(request);
+            request.future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    final int image = getImageIndex(request.imageFilePath);
+                    FaceRecFaceResults faceResults = new FaceRecFaceResults(getFaceCount(image));
+                    group.run(faceResults, 4, new FaceRecInputGroup.PixelSource() {
+                        @Override
+                        public void getPixels(int face, int size, int[] pixels) {
+                            Arrays.fill(pixels, 0, size * size, getPixel(image, face));
+                        }
+                    }, new FaceRecStageTimings());
+                    if (registry.remove(request)) {
+                        results.put(request.id, faceResults);
+                    } else {
+                        lateCompletions.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+        start.countDown();
+        for (FaceRecRequest request : requests) {
+            request.future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(0, lateCompletions.get());
+        assertEquals(0, registry.size());
+        assertEquals(REQUEST_COUNT, results.size());
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            FaceRecFaceResults faceResults = results.get("call-" + i);
+            assertEquals(getFaceCount(i), faceResults.count);
+            for (int face = 0; face < faceResults.count; face++) {
+                float[] output = faceResults.outputs.get(0).values[face];
+                int pixel = getPixel(i, face);
+                assertEquals(pixel >> 16 & 0xFF, output[0], 0f);
+                assertEquals(16 * ((pixel >> 16 & 0xFF) + (pixel >> 8 & 0xFF) + (pixel & 0xFF)), output[1], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void remove_completesEachRequestOnce() throws Exception {
+        final FaceRecRequestRegistry registry = new FaceRecRequestRegistry();
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            registry.register(new FaceRecRequest("call-" + i, null));
+        }
+        final AtomicInteger completions = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final boolean cancelling = t == 0;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    if (cancelling) {
+                        completions.addAndGet(registry.removeAll().size());
+                    } else {
+                        for (int i = 0; i < REQUEST_COUNT; i++) {
+                            if (registry.remove("call-" + i) != null) {
+                                completions.incrementAndGet();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(REQUEST_COUNT, completions.get());
+        assertEquals(0, registry.size());
+    }
+
+    private static int getImageIndex(String path) {
+        return Integer.parseInt(path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.')));
+    }
+
+    private static int getFaceCount(int image) {
+        return 1 + image % 5;
+    }
+
+    /**
+     * Encodes the image index in red and blue, and the face in green.
+     */
+    private static int getPixel(int image, int face) {
+        return 0xFF000000 | (image & 0xFF) << 16 | face << 8 | (image >> 8 & 0xFF);
+    }
+}
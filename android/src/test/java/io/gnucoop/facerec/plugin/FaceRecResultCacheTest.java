@@ -0,0 +1,159 @@
+package io.gnucoop.facerec.plugin;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FaceRecResultCacheTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("results", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        FaceRecResultCache cache = new FaceRecResultCache(null, 2, 0);
+        assertFalse(cache.isEnabled());
+        cache.put("a", "1");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getMisses());
+
+        cache.setVersion("v1");
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        FaceRecResultCache cache = new FaceRecResultCache(null, 2, 0);
+        cache.setVersion("v1");
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertEquals(2, cache.getMemoryEntries());
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+    }
+
+    @Test
+    public void setVersion_dropsEntriesOfOtherVersions() {
+        FaceRecResultCache cache = new FaceRecResultCache(dir, 4, 1024);
+        cache.setVersion("v1");
+        cache.put("a", "1");
+        cache.setVersion("v1");
+        assertEquals("1", cache.get("a"));
+
+        cache.setVersion("v2");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getDiskBytes());
+    }
+
+    @Test
+    public void get_readsEntriesFromDisk() {
+        FaceRecResultCache cache = new FaceRecResultCache(dir, 4, 1024);
+        cache.setVersion("v1");
+        cache.put("a", "{\"faces\":[]}");
+
+        FaceRecResultCache reopened = new FaceRecResultCache(dir, 4, 1024);
+        reopened.setVersion("v1");
+        assertEquals("{\"faces\":[]}", reopened.get("a"));
+        assertEquals(12, reopened.getDiskBytes());
+
+        reopened = new FaceRecResultCache(dir, 4, 1024);
+        reopened.setVersion("v2");
+        assertNull(reopened.get("a"));
+    }
+
+    @Test
+    public void put_trimsDiskToLimit() {
+        FaceRecResultCache cache = new FaceRecResultCache(dir, 0, 25);
+        cache.setVersion("v1");
+        cache.put("a", "0123456789");
+        new File(dir, "a.json").setLastModified(System.currentTimeMillis() - 10000);
+        cache.put("b", "0123456789");
+        assertEquals(20, cache.getDiskBytes());
+
+        cache.put("c", "0123456789");
+        assertEquals(20, cache.getDiskBytes());
+        assertNull(cache.get("a"));
+        assertEquals("0123456789", cache.get("c"));
+    }
+
+    @Test
+    public void hashFile_dependsOnContent() throws Exception {
+        File a = new File(dir.getParentFile(), dir.getName() + "-a");
+        File b = new File(dir.getParentFile(), dir.getName() + "-b");
+        try {
+            write(a, "image");
+            write(b, "image");
+            assertEquals(FaceRecResultCache.hashFile(a), FaceRecResultCache.hashFile(b));
+            write(b, "other");
+            assertNotEquals(FaceRecResultCache.hashFile(a), FaceRecResultCache.hashFile(b));
+        } finally {
+            a.delete();
+            b.delete();
+        }
+    }
+
+    @Test
+    public void hashFile_samplesLargeFiles() throws Exception {
+        File a = new File(dir.getParentFile(), dir.getName() + "-a");
+        File b = new File(dir.getParentFile(), dir.getName() + "-b");
+        try {
+            byte[] content = new byte[1024 * 1024];
+            new java.util.Random(42).nextBytes(content);
+            write(a, content);
+            write(b, content);
+            assertEquals(FaceRecResultCache.hashFile(a), FaceRecResultCache.hashFile(b));
+
+            content[content.length - 1]++;
+            write(b, content);
+            assertNotEquals(FaceRecResultCache.hashFile(a), FaceRecResultCache.hashFile(b));
+
+            content[content.length - 1]--;
+            write(b, java.util.Arrays.copyOf(content, content.length + 1));
+            assertNotEquals(FaceRecResultCache.hashFile(a), FaceRecResultCache.hashFile(b));
+        } finally {
+            a.delete();
+            b.delete();
+        }
+    }
+
+    private static void write(File file, String content) throws Exception {
+        write(file, content.getBytes("UTF-8"));
+    }
+
+    private static void write(File file, byte[] content) throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 2019 Gnucoop soc. coop.
+ *
+ * This file is part of c2s.
+ *
+ * c2s is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * c2s is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with c2s.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+import { FaceRecOutputOpts } from './output-opts';
+
+export interface FaceRecAnalyzeImagesOpts extends FaceRecOutputOpts {
+  images: string[];
+  parallelism?: number;
+  batchId?: string;
+}
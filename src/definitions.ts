@@ -18,10 +18,18 @@
  *
  */
 
+import { FaceRecAnalyzeImagesOpts } from './analyze-images-opts';
+import { FaceRecAnalyzeImagesSummary, FaceRecImageAnalyzedEvent } from './analyze-images-result';
+import { FaceRecEnrollFaceOpts, FaceRecSearchFacesOpts } from './enrollment-opts';
+import { FaceRecEnrollFaceResult, FaceRecRemoveEnrolledFaceResult } from './enrollment-result';
 import { FaceRecGetPhotoOpts } from './get-photo-opts';
 import { FaceRecInitEvent } from './init-event';
 import { FaceRecInitOpts } from './init-opts';
+import { FaceRecLiveAnalysisOpts } from './live-analysis-opts';
+import { FaceRecLiveAnalysisStats, FaceRecLiveResultEvent } from './live-analysis-result';
+import { FaceRecMetrics } from './metrics';
 import { FaceRecognitionResult } from './result';
+import { FaceRecResultCacheStats } from './result-cache-stats';
 
 declare module '@capacitor/core' {
   interface PluginRegistry {
@@ -32,5 +40,21 @@ declare module '@capacitor/core' {
 export interface FaceRecPlugin {
   initFaceRecognition(opts: FaceRecInitOpts): Promise<FaceRecInitEvent>;
   getPhoto(opts: FaceRecGetPhotoOpts): Promise<FaceRecognitionResult>;
+  analyzeImages(opts: FaceRecAnalyzeImagesOpts): Promise<FaceRecAnalyzeImagesSummary>;
+  cancelProcessing(): Promise<{cancelled: number}>;
+  startLiveAnalysis(opts?: FaceRecLiveAnalysisOpts): Promise<void>;
+  stopLiveAnalysis(): Promise<FaceRecLiveAnalysisStats>;
+  release(): Promise<{released: number}>;
+  getMetrics(): Promise<FaceRecMetrics>;
+  resetMetrics(): Promise<void>;
+  getResultCacheStats(): Promise<FaceRecResultCacheStats>;
+  clearResultCache(): Promise<void>;
+  clearOutputFiles(): Promise<{deleted: number}>;
+  enrollFace(opts: FaceRecEnrollFaceOpts): Promise<FaceRecEnrollFaceResult>;
+  searchFaces(opts: FaceRecSearchFacesOpts): Promise<FaceRecognitionResult>;
+  removeEnrolledFace(opts: {id: string}): Promise<FaceRecRemoveEnrolledFaceResult>;
+  clearEnrolledFaces(): Promise<void>;
   addListener(event: 'faceRecInitStatusChanged', handler: (statusEvt: FaceRecInitEvent) => void): {remove: () => void};
+  addListener(event: 'faceRecImageAnalyzed', handler: (evt: FaceRecImageAnalyzedEvent) => void): {remove: () => void};
+  addListener(event: 'faceRecLiveResult', handler: (evt: FaceRecLiveResultEvent) => void): {remove: () => void};
 }
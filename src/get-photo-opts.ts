@@ -18,8 +18,9 @@
  *
  */
 
+import { FaceRecOutputOpts } from './output-opts';
 import { FaceRecPhotoSource } from './photo-source';
 
-export interface FaceRecGetPhotoOpts {
+export interface FaceRecGetPhotoOpts extends FaceRecOutputOpts {
   source: FaceRecPhotoSource;
 }
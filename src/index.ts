@@ -18,12 +18,24 @@
  *
  */
 
+export * from './analyze-images-opts';
+export * from './analyze-images-result';
 export * from './definitions';
+export * from './enrollment-opts';
+export * from './enrollment-result';
+export * from './fallback-mode';
 export * from './get-photo-opts';
 export * from './init-event';
 export * from './init-opts';
 export * from './init-status-change-handler';
 export * from './init-status';
+export * from './live-analysis-opts';
+export * from './live-analysis-result';
+export * from './metrics';
+export * from './model-opts';
+export * from './output-opts';
 export * from './photo-source';
+export * from './result-cache-stats';
+export * from './result-type';
 export * from './result';
 export * from './web';
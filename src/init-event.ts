@@ -20,8 +20,22 @@
 
 import { FaceRecInitStatus } from './init-status';
 
+export interface FaceRecWarmUpStats {
+  runs: number;
+  first?: number;
+  average?: number;
+}
+
 export interface FaceRecInitEvent {
   status: FaceRecInitStatus;
   error?: string;
   progress?: number;
+  bytesRead?: number;
+  totalBytes?: number;
+  bytesPerSecond?: number;
+  eta?: number;
+  modelIndex?: number;
+  modelCount?: number;
+  warmUp?: FaceRecWarmUpStats;
+  cached?: boolean;
 }
@@ -18,10 +18,39 @@
  *
  */
 
+import { FaceRecFallbackMode } from './fallback-mode';
+import { FaceRecModelOpts } from './model-opts';
+
 export interface FaceRecInitOpts {
-  modelUrl: string;
+  modelUrl?: string;
+  models?: FaceRecModelOpts[];
+  embeddingModel?: string;
+  modelSha256?: string;
+  batchSize?: number;
   inputSize?: number;
+  detectionMaxSize?: number;
+  detectorMode?: 'fast' | 'accurate';
+  minFaceSize?: number;
+  faceTracking?: boolean;
+  minFacePixels?: number;
+  maxFaces?: number;
+  cropSampling?: 'bilinear' | 'area';
+  noFaceFallback?: FaceRecFallbackMode;
   pixelSize?: number;
   inputAsRgb?: boolean;
   floatNet?: boolean;
+  imageMean?: number | number[];
+  imageStd?: number | number[];
+  workerCount?: number;
+  maxQueuedRequests?: number;
+  numThreads?: number;
+  useNNAPI?: boolean;
+  allowFp16PrecisionForFp32?: boolean;
+  warmUpRuns?: number;
+  progressInterval?: number;
+  progressStep?: number;
+  resultCacheSize?: number;
+  resultCacheDiskSize?: number;
+  outputDiskSize?: number;
+  outputMaxAge?: number;
 }
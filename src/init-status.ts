@@ -23,5 +23,6 @@ export enum FaceRecInitStatus {
   LoadingModels,
   DownloadingModels,
   Success,
-  Error
+  Error,
+  Released
 }
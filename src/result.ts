@@ -18,22 +18,120 @@
  *
  */
 
+import { FaceRecStageTimings } from './analyze-images-result';
+
+export interface FaceRecEmbeddingMatch {
+  id: string;
+  score: number;
+}
+
 export interface FaceRecognitionFace {
   x: number;
   y: number;
   width: number;
   height: number;
-  gender: {
+  trackingId?: number;
+  gender?: {
     male: number;
     female: number;
   };
+  matches?: FaceRecEmbeddingMatch[];
+  [model: string]: number | number[] | {[label: string]: number} | FaceRecEmbeddingMatch[] | undefined;
+}
+
+export interface FaceRecognitionImage {
+  base64Data?: string;
+  path?: string;
+  exif?: any;
+}
+
+export interface FaceRecPackedField {
+  name: string;
+  type: 'number' | 'labels' | 'array';
+  offset: number;
+  size: number;
+  labels?: string[];
+}
+
+export interface FaceRecPackedFaces {
+  count: number;
+  stride: number;
+  fields: FaceRecPackedField[];
+  base64Data?: string;
+  path?: string;
 }
 
 export interface FaceRecognitionResult {
-  faces: FaceRecognitionFace[],
-  originalImage: string;
-  taggedImage: {
-    base64Data: string;
-    exif?: any;
-  };
+  faces?: FaceRecognitionFace[],
+  packedFaces?: FaceRecPackedFaces;
+  skippedFaces?: number;
+  boxes?: number[][];
+  imageWidth?: number;
+  imageHeight?: number;
+  originalImage?: FaceRecognitionImage;
+  taggedImage?: FaceRecognitionImage;
+  timings?: FaceRecStageTimings;
+}
+
+/**
+ * Returns the packed face values, count rows of stride float32 values.
+ * The data is read from base64Data, or from buffer when the faces were
+ * written to a file.
+ */
+export function getFaceRecPackedValues(packed: FaceRecPackedFaces, buffer?: ArrayBuffer): Float32Array {
+  if (buffer == null) {
+    const binary = atob(packed.base64Data || '');
+    const bytes = new Uint8Array(binary.length);
+    for (let i = 0; i < binary.length; i++) {
+      bytes[i] = binary.charCodeAt(i);
+    }
+    buffer = bytes.buffer;
+  }
+  const view = new DataView(buffer);
+  const values = new Float32Array(packed.count * packed.stride);
+  for (let i = 0; i < values.length; i++) {
+    values[i] = view.getFloat32(i * 4, true);
+  }
+  return values;
+}
+
+/**
+ * Rebuilds the faces of a packed result. Missing values, stored as NaN,
+ * are left out.
+ */
+export function unpackFaceRecFaces(packed: FaceRecPackedFaces, buffer?: ArrayBuffer): FaceRecognitionFace[] {
+  const values = getFaceRecPackedValues(packed, buffer);
+  const faces: FaceRecognitionFace[] = [];
+  for (let i = 0; i < packed.count; i++) {
+    const row = i * packed.stride;
+    const face: FaceRecognitionFace = {x: 0, y: 0, width: 0, height: 0};
+    for (const field of packed.fields) {
+      const start = row + field.offset;
+      if (field.type === 'labels') {
+        const labels: {[label: string]: number} = {};
+        let found = false;
+        (field.labels || []).forEach((label, j) => {
+          if (!isNaN(values[start + j])) {
+            labels[label] = values[start + j];
+            found = true;
+          }
+        });
+        if (found) {
+          face[field.name] = labels;
+        }
+      } else if (field.type === 'array') {
+        const array = Array.from(values.subarray(start, start + field.size));
+        while (array.length > 0 && isNaN(array[array.length - 1])) {
+          array.pop();
+        }
+        if (array.length > 0) {
+          face[field.name] = array;
+        }
+      } else if (!isNaN(values[start])) {
+        face[field.name] = values[start];
+      }
+    }
+    faces.push(face);
+  }
+  return faces;
 }
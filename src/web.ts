@@ -19,15 +19,23 @@
  */
 
 import { WebPlugin, registerWebPlugin } from '@capacitor/core';
+import { FaceRecAnalyzeImagesOpts } from './analyze-images-opts';
+import { FaceRecAnalyzeImagesSummary, FaceRecStageTimings } from './analyze-images-result';
 import { FaceRecPlugin } from './definitions';
+import { FaceRecEnrollFaceOpts, FaceRecSearchFacesOpts } from './enrollment-opts';
+import { FaceRecEnrollFaceResult, FaceRecRemoveEnrolledFaceResult } from './enrollment-result';
 import { FaceRecGetPhotoOpts } from './get-photo-opts';
 import { FaceRecInitEvent } from './init-event';
+import { FaceRecInitOpts } from './init-opts';
 import { FaceRecInitStatus } from './init-status';
-import { FaceRecInitStatusChangeHandler } from './init-status-change-handler';
+import { FaceRecLiveAnalysisOpts } from './live-analysis-opts';
+import { FaceRecLiveAnalysisStats } from './live-analysis-result';
+import { FaceRecMetrics } from './metrics';
 import { FaceRecognitionResult } from './result';
+import { FaceRecResultCacheStats } from './result-cache-stats';
 
 export class FaceRecWeb extends WebPlugin implements FaceRecPlugin {
-  private _events: {[key: string]: FaceRecInitStatusChangeHandler[]} = {};
+  private _events: {[key: string]: ((evt: any) => void)[]} = {};
 
   constructor() {
     super({
@@ -36,7 +44,7 @@ export class FaceRecWeb extends WebPlugin implements FaceRecPlugin {
     });
   }
 
-  initFaceRecognition(_opts: {modelUrl: string}): Promise<FaceRecInitEvent> {
+  initFaceRecognition(_opts: FaceRecInitOpts): Promise<FaceRecInitEvent> {
     const evt = { status: FaceRecInitStatus.Success };
     (this._events['faceRecInitStatusChanged'] || []).forEach(h => h(evt));
     return Promise.resolve(evt);
@@ -45,11 +53,75 @@ export class FaceRecWeb extends WebPlugin implements FaceRecPlugin {
   getPhoto(_opts: FaceRecGetPhotoOpts): Promise<FaceRecognitionResult> {
     return Promise.resolve({
       faces: [],
-      originalImage: '', taggedImage: { base64Data: '' }
+      originalImage: { base64Data: '' }, taggedImage: { base64Data: '' }
     });
   }
 
-  addListener(event: 'faceRecInitStatusChanged', handler: FaceRecInitStatusChangeHandler): {remove: () => void} {
+  analyzeImages(opts: FaceRecAnalyzeImagesOpts): Promise<FaceRecAnalyzeImagesSummary> {
+    const timings: FaceRecStageTimings = {
+      hash: 0, decode: 0, rotate: 0, detect: 0, crop: 0, convert: 0, inference: 0, draw: 0, encode: 0
+    };
+    return Promise.resolve({
+      callbackId: '', batchId: opts.batchId,
+      count: opts.images.length, succeeded: 0, failed: opts.images.length,
+      elapsed: 0, imagesPerSecond: 0, totalTimings: timings, averageTimings: timings
+    });
+  }
+
+  cancelProcessing(): Promise<{cancelled: number}> {
+    return Promise.resolve({cancelled: 0});
+  }
+
+  startLiveAnalysis(_opts?: FaceRecLiveAnalysisOpts): Promise<void> {
+    return Promise.reject('Live analysis is not available on web');
+  }
+
+  stopLiveAnalysis(): Promise<FaceRecLiveAnalysisStats> {
+    return Promise.resolve({processedFrames: 0, droppedFrames: 0});
+  }
+
+  release(): Promise<{released: number}> {
+    return Promise.resolve({released: 0});
+  }
+
+  getMetrics(): Promise<FaceRecMetrics> {
+    const empty = {count: 0, mean: 0, p50: 0, p95: 0, p99: 0, max: 0};
+    return Promise.resolve({images: {total: empty, stages: {}}, frames: {total: empty, stages: {}}});
+  }
+
+  resetMetrics(): Promise<void> {
+    return Promise.resolve();
+  }
+
+  getResultCacheStats(): Promise<FaceRecResultCacheStats> {
+    return Promise.resolve({hits: 0, misses: 0, memoryEntries: 0, diskBytes: 0});
+  }
+
+  clearResultCache(): Promise<void> {
+    return Promise.resolve();
+  }
+
+  clearOutputFiles(): Promise<{deleted: number}> {
+    return Promise.resolve({deleted: 0});
+  }
+
+  enrollFace(_opts: FaceRecEnrollFaceOpts): Promise<FaceRecEnrollFaceResult> {
+    return Promise.reject('Face enrollment is not available on web');
+  }
+
+  searchFaces(_opts: FaceRecSearchFacesOpts): Promise<FaceRecognitionResult> {
+    return Promise.reject('Face search is not available on web');
+  }
+
+  removeEnrolledFace(_opts: {id: string}): Promise<FaceRecRemoveEnrolledFaceResult> {
+    return Promise.resolve({removed: 0, count: 0});
+  }
+
+  clearEnrolledFaces(): Promise<void> {
+    return Promise.resolve();
+  }
+
+  addListener(event: string, handler: (evt: any) => void): {remove: () => void} {
     if (this._events[event] == null) {
       this._events[event] = [];
     }
@@ -57,7 +129,7 @@ export class FaceRecWeb extends WebPlugin implements FaceRecPlugin {
     return {remove: () => this._removeListener(event, handler)};
   }
 
-  private _removeListener(event: 'faceRecInitStatusChanged', handler: FaceRecInitStatusChangeHandler): void {
+  private _removeListener(event: string, handler: (evt: any) => void): void {
     if (this._events[event] == null) { return; }
     const hIdx = this._events[event].indexOf(handler);
     if (hIdx > -1) {